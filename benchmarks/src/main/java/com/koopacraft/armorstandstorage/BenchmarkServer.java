@@ -0,0 +1,37 @@
+package com.koopacraft.armorstandstorage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import org.bukkit.World;
+
+// A mock server with the plugin enabled and one world, for benchmarks that need Bukkit objects
+final class BenchmarkServer {
+    private static ServerMock server;
+    private static ArmorStandStorage plugin;
+    private static World world;
+
+    private BenchmarkServer() {
+    }
+
+    static ArmorStandStorage start() {
+        if (server == null) {
+            server = MockBukkit.mock();
+            plugin = MockBukkit.load(ArmorStandStorage.class);
+            world = server.addSimpleWorld("world");
+        }
+        return plugin;
+    }
+
+    static World world() {
+        return world;
+    }
+
+    static void stop() {
+        if (server != null) {
+            MockBukkit.unmock();
+            server = null;
+            plugin = null;
+            world = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Copying a storage inventory onto the stand's equipment, which runs on the main thread after every click
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EquipmentBenchmark {
+    private ArmorStandListener listener;
+    private ArmorStand armorStand;
+    private ItemStack[] contents;
+    private ItemStack[] otherHelmet;
+    private boolean toggle;
+
+    @Setup
+    public void setup() {
+        ArmorStandStorage plugin = BenchmarkServer.start();
+        World world = BenchmarkServer.world();
+        listener = new ArmorStandListener(plugin);
+        armorStand = world.spawn(new Location(world, 0, 64, 0), ArmorStand.class);
+
+        contents = new ItemStack[27];
+        contents[0] = new ItemStack(Material.DIAMOND_HELMET);
+        contents[1] = new ItemStack(Material.DIAMOND_CHESTPLATE);
+        contents[2] = new ItemStack(Material.DIAMOND_LEGGINGS);
+        contents[3] = new ItemStack(Material.DIAMOND_BOOTS);
+        contents[4] = new ItemStack(Material.DIAMOND_SWORD);
+        contents[5] = new ItemStack(Material.SHIELD);
+        for (int i = 6; i < contents.length; i += 2) {
+            contents[i] = new ItemStack(Material.COBBLESTONE, 64);
+        }
+        otherHelmet = contents.clone();
+        otherHelmet[0] = new ItemStack(Material.IRON_HELMET);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkServer.stop();
+    }
+
+    // Same contents every time, nothing needs re-applying
+    @Benchmark
+    public ArmorStand setEquipment() {
+        listener.setArmorStandEquipment(armorStand, contents);
+        return armorStand;
+    }
+
+    // The helmet swaps on every call
+    @Benchmark
+    public ArmorStand setEquipmentChanged() {
+        toggle = !toggle;
+        listener.setArmorStandEquipment(armorStand, toggle ? otherHelmet : contents);
+        return armorStand;
+    }
+}
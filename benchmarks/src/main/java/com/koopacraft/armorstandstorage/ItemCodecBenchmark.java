@@ -0,0 +1,77 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Inventory encoding. split() is decode() without ItemStack.deserializeBytes, which needs a real server.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ItemCodecBenchmark {
+    @Param({"27", "54"})
+    public int slots;
+
+    @Param({"0", "512"})
+    public int compressionThreshold;
+
+    private ItemCodec codec;
+    private ItemStack[] contents;
+    private byte[] encoded;
+    private BitSet changedSlot;
+    private Map<Integer, byte[]> slotChange;
+
+    @Setup
+    public void setup() {
+        BenchmarkServer.start();
+        codec = new ItemCodec(compressionThreshold);
+        contents = TestItems.inventory(slots, slots, 42L);
+        encoded = codec.encode(contents);
+        changedSlot = new BitSet();
+        changedSlot.set(3);
+        slotChange = codec.encodeSlots(contents, changedSlot);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkServer.stop();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(contents);
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> encodeChangedSlot() {
+        return codec.encodeSlots(contents, changedSlot);
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> split() throws IOException {
+        return codec.split(encoded);
+    }
+
+    @Benchmark
+    public byte[] patchChangedSlot() throws IOException {
+        return codec.patch(encoded, slotChange);
+    }
+}
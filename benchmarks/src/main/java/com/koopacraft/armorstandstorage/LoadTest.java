@@ -0,0 +1,421 @@
+package com.koopacraft.armorstandstorage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.MockUnsafeValues;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.event.Event;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.player.PlayerInteractAtEntityEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.Vector;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Simulated load on a mock server: players opening, clicking in, dragging in and closing the storages of
+// armor stands at scripted rates, driven one scheduler tick at a time. Reports server thread time per
+// tick, handler latencies, database writes per second and allocation rates, so storage configurations
+// can be compared on numbers before they go to a real server:
+//   java -cp target/benchmarks.jar com.koopacraft.armorstandstorage.LoadTest players=300 stands=1000 storage.save-interval=20
+// Options are name=value. Names with a dot override the plugin's config.yml, e.g. storage.cache-size=0
+// or storage.mode=entity. The same seed gives the same script, how it plays out still depends on database timing.
+public final class LoadTest {
+    // Ticks a player waits for a storage to open before giving up on it
+    private static final int OPEN_TIMEOUT_TICKS = 100;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final Material[] ITEM_TYPES = {
+            Material.DIAMOND_HELMET, Material.DIAMOND_CHESTPLATE, Material.DIAMOND_LEGGINGS, Material.DIAMOND_BOOTS,
+            Material.DIAMOND_SWORD, Material.SHIELD, Material.BOW, Material.COBBLESTONE, Material.OAK_LOG, Material.TORCH
+    };
+
+    private final int playerCount;
+    private final int standCount;
+    private final int ticks;
+    private final int warmupTicks;
+    private final int filledSlots;
+    // Per player and second
+    private final double openRate;
+    private final double clickRate;
+    private final double dragRate;
+    private final double closeRate;
+    // Sleep out the rest of each 50ms tick, so the database threads get real time between ticks
+    private final boolean paced;
+    private final Map<String, Object> config;
+    private final Random random;
+
+    private ServerMock server;
+    private ArmorStandStorage plugin;
+    private final List<ArmorStand> stands = new ArrayList<>();
+    private final List<SimulatedPlayer> players = new ArrayList<>();
+    private final List<ItemStack> items = new ArrayList<>();
+
+    // Results of the measured ticks
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private double measuredSeconds;
+    private long serverThreadAllocated;
+    // Allocated by threads that were running both when measuring started and when it ended
+    private long processBytes;
+    private int opens;
+    private int openTimeouts;
+    private int clicks;
+    private int drags;
+    private int closes;
+
+    private static final class SimulatedPlayer {
+        private final PlayerMock player;
+        // Stand the player clicked and is waiting for, and since when
+        private ArmorStand opening;
+        private int openingSince;
+
+        private SimulatedPlayer(PlayerMock player) {
+            this.player = player;
+        }
+    }
+
+    // MockBukkit can't serialize items, so items are given a payload shaped like serialized gear (see
+    // TestItems) the first time they are written, and that payload reads back as a copy of the item
+    private static final class ItemSerialization extends MockUnsafeValues {
+        private final Map<String, byte[]> payloads = new ConcurrentHashMap<>();
+        private final Map<ByteBuffer, ItemStack> prototypes = new ConcurrentHashMap<>();
+
+        @Override
+        public byte[] serializeItem(ItemStack item) {
+            String key = item.getType().getKey() + ":" + item.getAmount();
+            return payloads.computeIfAbsent(key, ignored -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+                byte[] name = key.getBytes(StandardCharsets.UTF_8);
+                out.write(name, 0, name.length);
+                byte[] gear = TestItems.serializedItem(new Random(key.hashCode()));
+                out.write(gear, 0, gear.length);
+                byte[] payload = out.toByteArray();
+                prototypes.put(ByteBuffer.wrap(payload), new ItemStack(item.getType(), item.getAmount()));
+                return payload;
+            }).clone();
+        }
+
+        @Override
+        public ItemStack deserializeItem(byte[] data) {
+            ItemStack prototype = prototypes.get(ByteBuffer.wrap(data));
+            if (prototype == null) {
+                throw new IllegalArgumentException("Not an item written by this load test");
+            }
+            return prototype.clone();
+        }
+    }
+
+    private LoadTest(Map<String, String> options) {
+        playerCount = Integer.parseInt(options.getOrDefault("players", "300"));
+        standCount = Integer.parseInt(options.getOrDefault("stands", "1000"));
+        ticks = Integer.parseInt(options.getOrDefault("ticks", "1200"));
+        warmupTicks = Integer.parseInt(options.getOrDefault("warmup", "200"));
+        filledSlots = Integer.parseInt(options.getOrDefault("filled", "6"));
+        openRate = Double.parseDouble(options.getOrDefault("open-rate", "0.2"));
+        clickRate = Double.parseDouble(options.getOrDefault("click-rate", "2"));
+        dragRate = Double.parseDouble(options.getOrDefault("drag-rate", "0.5"));
+        closeRate = Double.parseDouble(options.getOrDefault("close-rate", "0.1"));
+        paced = Boolean.parseBoolean(options.getOrDefault("paced", "true"));
+        random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        config = new LinkedHashMap<>();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().contains(".")) {
+                config.put(option.getKey(), parseValue(option.getValue()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0) {
+                System.err.println("Options are name=value, got " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        LoadTest test = new LoadTest(options);
+        try {
+            test.setup();
+            test.run();
+            test.report();
+        } finally {
+            MockBukkit.unmock();
+        }
+    }
+
+    private static Object parseValue(String value) {
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private void setup() throws Exception {
+        ItemSerialization serialization = new ItemSerialization();
+        server = MockBukkit.mock(new ServerMock() {
+            @Override
+            public MockUnsafeValues getUnsafe() {
+                return serialization;
+            }
+        });
+        plugin = MockBukkit.load(ArmorStandStorage.class);
+        if (!config.isEmpty()) {
+            // The config is read on enable, so restart the plugin with the overrides in place
+            server.getPluginManager().disablePlugin(plugin);
+            config.forEach(plugin.getConfig()::set);
+            plugin.saveConfig();
+            server.getPluginManager().enablePlugin(plugin);
+        }
+        World world = server.addSimpleWorld("world");
+
+        for (int i = 0; i < 256; i++) {
+            items.add(new ItemStack(ITEM_TYPES[i % ITEM_TYPES.length], 1 + i / ITEM_TYPES.length));
+        }
+
+        // Spread over chunks like a shopping district, a few blocks apart
+        for (int i = 0; i < standCount; i++) {
+            stands.add(world.spawn(new Location(world, (i % 32) * 3, 64, (i / 32) * 3), ArmorStand.class));
+        }
+        InventoryStore store = plugin.getInventoryStore();
+        store.standsLoaded(stands);
+        for (ArmorStand stand : stands) {
+            ItemStack[] contents = new ItemStack[27];
+            for (int slot = 0; slot < filledSlots && slot < contents.length; slot++) {
+                contents[slot] = randomItem();
+            }
+            store.saveNow(stand, contents, null);
+        }
+        waitForDatabase();
+
+        for (int i = 0; i < playerCount; i++) {
+            PlayerMock player = server.addPlayer();
+            player.setOp(true);
+            player.setSneaking(true);
+            players.add(new SimulatedPlayer(player));
+        }
+    }
+
+    // Runs ticks until the database has caught up with everything submitted so far
+    private void waitForDatabase() throws InterruptedException {
+        Database database = plugin.getDatabase();
+        do {
+            server.getScheduler().performOneTick();
+            Thread.sleep(50);
+        } while (database.getWriteQueueSize() > 0 || database.getReadQueueSize() > 0);
+    }
+
+    private void run() throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] processAllocated = null;
+        long[] threadIds = null;
+        long measuredSince = 0;
+
+        for (int tick = 0; tick < warmupTicks + ticks; tick++) {
+            if (tick == warmupTicks) {
+                plugin.getMetrics().reset();
+                threadIds = threads.getAllThreadIds();
+                processAllocated = threads.getThreadAllocatedBytes(threadIds);
+                measuredSince = System.nanoTime();
+            }
+            boolean measuring = tick >= warmupTicks;
+            long tickStart = System.nanoTime();
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+
+            long nanos = 0;
+            for (SimulatedPlayer player : players) {
+                nanos += step(player, tick, measuring);
+            }
+            long tasksStart = System.nanoTime();
+            server.getScheduler().performOneTick();
+            nanos += System.nanoTime() - tasksStart;
+
+            if (measuring) {
+                tickTimes.record(nanos);
+                serverThreadAllocated += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+            if (paced) {
+                long left = TICK_NANOS - (System.nanoTime() - tickStart);
+                if (left > 0) {
+                    TimeUnit.NANOSECONDS.sleep(left);
+                }
+            }
+        }
+
+        measuredSeconds = (System.nanoTime() - measuredSince) / 1e9;
+        long[] after = threads.getThreadAllocatedBytes(threadIds);
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 for threads that ended meanwhile
+            if (processAllocated[i] >= 0 && after[i] >= 0) {
+                processBytes += after[i] - processAllocated[i];
+            }
+        }
+    }
+
+    // One tick of a player's client, returns the server thread time spent in the plugin's handlers
+    private long step(SimulatedPlayer simulated, int tick, boolean measuring) {
+        PlayerMock player = simulated.player;
+        InventoryView view = player.getOpenInventory();
+        Inventory top = view.getTopInventory();
+        if (!(top.getHolder(false) instanceof StorageHolder)) {
+            if (simulated.opening != null) {
+                if (tick - simulated.openingSince < OPEN_TIMEOUT_TICKS) {
+                    return 0;
+                }
+                simulated.opening = null;
+                if (measuring) {
+                    openTimeouts++;
+                }
+            }
+            if (events(openRate) == 0) {
+                return 0;
+            }
+            simulated.opening = stands.get(random.nextInt(stands.size()));
+            simulated.openingSince = tick;
+            return call(new PlayerInteractAtEntityEvent(player, simulated.opening, new Vector()));
+        }
+
+        if (simulated.opening != null) {
+            simulated.opening = null;
+            if (measuring) {
+                opens++;
+            }
+        }
+        StorageHolder holder = (StorageHolder) top.getHolder(false);
+        int slots = holder.getSlots(Math.max(0, holder.pageOf(top)));
+        long nanos = 0;
+        for (int i = events(clickRate); i > 0; i--) {
+            nanos += click(view, top, random.nextInt(slots));
+            if (measuring) {
+                clicks++;
+            }
+        }
+        for (int i = events(dragRate); i > 0; i--) {
+            nanos += drag(view, top, slots);
+            if (measuring) {
+                drags++;
+            }
+        }
+        if (events(closeRate) > 0) {
+            nanos += call(new InventoryCloseEvent(view));
+            // The listener ignores the close event if MockBukkit sends one as well
+            player.closeInventory();
+            if (measuring) {
+                closes++;
+            }
+        }
+        return nanos;
+    }
+
+    // Picks up the item in the slot or puts one down, the way the server applies a click after the event
+    private long click(InventoryView view, Inventory top, int slot) {
+        ItemStack current = top.getItem(slot);
+        InventoryClickEvent event = new InventoryClickEvent(view, InventoryType.SlotType.CONTAINER, slot, ClickType.LEFT,
+                current == null ? InventoryAction.PLACE_ALL : InventoryAction.PICKUP_ALL);
+        long nanos = call(event);
+        if (!event.isCancelled()) {
+            top.setItem(slot, current == null ? randomItem() : null);
+        }
+        return nanos;
+    }
+
+    // Spreads an item over two to four slots
+    private long drag(InventoryView view, Inventory top, int slots) {
+        ItemStack item = randomItem();
+        Map<Integer, ItemStack> changes = new HashMap<>();
+        int count = 2 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            changes.put(random.nextInt(slots), item.clone());
+        }
+        InventoryDragEvent event = new InventoryDragEvent(view, null, item, false, changes);
+        long nanos = call(event);
+        if (!event.isCancelled()) {
+            changes.forEach(top::setItem);
+        }
+        return nanos;
+    }
+
+    private long call(Event event) {
+        long start = System.nanoTime();
+        server.getPluginManager().callEvent(event);
+        return System.nanoTime() - start;
+    }
+
+    // How many times something happening rate times a second happens this tick
+    private int events(double rate) {
+        double perTick = rate / 20;
+        int events = (int) perTick;
+        if (random.nextDouble() < perTick - events) {
+            events++;
+        }
+        return events;
+    }
+
+    private ItemStack randomItem() {
+        return items.get(random.nextInt(items.size())).clone();
+    }
+
+    private void report() {
+        Metrics metrics = plugin.getMetrics();
+        System.out.println("Load test: " + playerCount + " players, " + standCount + " stands, " + ticks + " ticks"
+                + (paced ? "" : " (not paced)") + (config.isEmpty() ? "" : ", config " + config));
+        System.out.printf("Rates per player and second: open %.2f, click %.2f, drag %.2f, close %.2f%n",
+                openRate, clickRate, dragRate, closeRate);
+        System.out.printf("Actions: %d opened, %d timed out opening, %d clicks, %d drags, %d closed%n",
+                opens, openTimeouts, clicks, drags, closes);
+        System.out.printf("Server thread per tick: mean %.3fms, p50 %.3fms, p99 %.3fms, max %.3fms%n",
+                tickTimes.getMean() / 1e6, tickTimes.getPercentile(50) / 1e6,
+                tickTimes.getPercentile(99) / 1e6, tickTimes.getMax() / 1e6);
+
+        for (Map.Entry<String, LatencyHistogram> timer : handlerTimers(metrics).entrySet()) {
+            LatencyHistogram histogram = timer.getValue();
+            System.out.printf("  %s: %d calls, mean %.1fus, p99 %.1fus, max %.1fus%n", timer.getKey(),
+                    histogram.getCount(), histogram.getMean() / 1e3, histogram.getPercentile(99) / 1e3, histogram.getMax() / 1e3);
+        }
+
+        LatencyHistogram saves = metrics.timer("db.save");
+        System.out.printf("Database: %.1f save transactions/s (p99 %.2fms), %d writes queued at the end%n",
+                saves.getCount() / measuredSeconds, saves.getPercentile(99) / 1e6, plugin.getDatabase().getWriteQueueSize());
+        System.out.printf("Allocation: %.1f KB per tick on the server thread, %.1f MB/s for the whole process%n",
+                serverThreadAllocated / 1024.0 / ticks, processBytes / 1048576.0 / measuredSeconds);
+    }
+
+    // Listener handlers and the tasks they schedule, by name
+    private static Map<String, LatencyHistogram> handlerTimers(Metrics metrics) {
+        Map<String, LatencyHistogram> timers = new LinkedHashMap<>();
+        for (String handler : new String[]{"interact", "open-task", "click", "click-task", "drag", "drag-task", "close"}) {
+            LatencyHistogram timer = metrics.timer("handler." + handler);
+            if (timer.getCount() > 0) {
+                timers.put(handler, timer);
+            }
+        }
+        return timers;
+    }
+}
@@ -0,0 +1,132 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// SQLite save and load latency against a table of the given size, called the way the database writer
+// and reader threads call it. Every stand has a few occupied slots out of a single chest.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StorageBenchmark {
+    private static final int SLOTS = 27;
+    private static final int FILLED_SLOTS = 6;
+    private static final int BATCH_SIZE = 5000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private File file;
+    private SQLiteBackend backend;
+    private ItemCodec codec;
+    private World world;
+    private UUID[] ids;
+    private byte[][] items;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ArmorStandStorage plugin = BenchmarkServer.start();
+        world = BenchmarkServer.world();
+        codec = plugin.getDatabase().getCodec();
+        file = File.createTempFile("armorstands-benchmark", ".db");
+        file.delete();
+        backend = new SQLiteBackend(plugin, file, codec);
+        backend.open();
+
+        random = new Random(42L);
+        items = new byte[64][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = TestItems.serializedItem(random);
+        }
+
+        ids = new UUID[rows];
+        Map<StandRecord, Map<Integer, byte[]>> batch = new LinkedHashMap<>();
+        for (int i = 0; i < rows; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong());
+            Map<Integer, byte[]> slots = new TreeMap<>();
+            for (int slot = 0; slot < FILLED_SLOTS; slot++) {
+                slots.put(slot, randomItem());
+            }
+            batch.put(new StandRecord(ids[i], location(i), null), slots);
+            if (batch.size() == BATCH_SIZE) {
+                backend.saveInventories(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            backend.saveInventories(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        backend.close();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+        BenchmarkServer.stop();
+    }
+
+    private Location location(int index) {
+        return new Location(world, index % 1000, 64, index / 1000);
+    }
+
+    private byte[] randomItem() {
+        return items[random.nextInt(items.length)];
+    }
+
+    // One click in an open inventory
+    @Benchmark
+    public void saveChangedSlot() throws Exception {
+        int index = random.nextInt(rows);
+        int slot = random.nextInt(SLOTS);
+        BitSet changed = new BitSet();
+        changed.set(slot);
+        StandRecord stand = new StandRecord(ids[index], location(index), null, changed);
+        backend.saveInventories(Collections.singletonMap(stand, Collections.singletonMap(slot, randomItem())));
+    }
+
+    @Benchmark
+    public void saveWholeInventory() throws Exception {
+        int index = random.nextInt(rows);
+        Map<Integer, byte[]> slots = new TreeMap<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            slots.put(slot, slot < FILLED_SLOTS ? randomItem() : null);
+        }
+        StandRecord stand = new StandRecord(ids[index], location(index), null);
+        backend.saveInventories(Collections.singletonMap(stand, slots));
+    }
+
+    @Benchmark
+    public byte[] load() throws Exception {
+        int index = random.nextInt(rows);
+        return backend.loadInventory(ids[index], location(index));
+    }
+}
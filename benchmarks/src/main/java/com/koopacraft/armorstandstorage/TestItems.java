@@ -0,0 +1,76 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// MockBukkit can't run Paper's item serialization, so codec and storage benchmarks use items that
+// return a pre-generated payload shaped like serialized enchanted gear: repeated NBT keys plus a
+// little unique data per item, about as compressible as the real thing.
+final class TestItems {
+    private static final Material[] TYPES = {
+            Material.DIAMOND_HELMET, Material.DIAMOND_CHESTPLATE, Material.DIAMOND_LEGGINGS,
+            Material.DIAMOND_BOOTS, Material.DIAMOND_SWORD, Material.SHIELD, Material.BOW, Material.NETHERITE_PICKAXE
+    };
+    private static final String[] ENCHANTMENTS = {
+            "minecraft:protection", "minecraft:unbreaking", "minecraft:mending", "minecraft:sharpness",
+            "minecraft:fire_aspect", "minecraft:looting", "minecraft:efficiency", "minecraft:thorns"
+    };
+
+    private TestItems() {
+    }
+
+    static byte[] serializedItem(Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        write(out, "DataVersion");
+        out.write(0x0F);
+        out.write(0x7B);
+        write(out, "id");
+        write(out, "minecraft:" + TYPES[random.nextInt(TYPES.length)].name().toLowerCase());
+        write(out, "count");
+        out.write(1);
+        write(out, "components");
+        write(out, "minecraft:enchantments");
+        write(out, "levels");
+        int enchantments = 2 + random.nextInt(4);
+        for (int i = 0; i < enchantments; i++) {
+            write(out, ENCHANTMENTS[random.nextInt(ENCHANTMENTS.length)]);
+            out.write(1 + random.nextInt(5));
+        }
+        write(out, "minecraft:damage");
+        out.write(random.nextInt(256));
+        write(out, "minecraft:custom_name");
+        write(out, "{\"text\":\"Item " + Long.toHexString(random.nextLong()) + "\",\"italic\":false}");
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static ItemStack item(Random random) {
+        Material type = TYPES[random.nextInt(TYPES.length)];
+        byte[] serialized = serializedItem(random);
+        return new ItemStack(type) {
+            @Override
+            public byte[] serializeAsBytes() {
+                return serialized;
+            }
+        };
+    }
+
+    // The first filled slots hold an item each, the rest are empty
+    static ItemStack[] inventory(int slots, int filled, long seed) {
+        Random random = new Random(seed);
+        ItemStack[] contents = new ItemStack[slots];
+        for (int i = 0; i < filled && i < slots; i++) {
+            contents[i] = item(random);
+        }
+        return contents;
+    }
+}
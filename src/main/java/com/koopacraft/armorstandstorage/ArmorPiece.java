@@ -0,0 +1,43 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Material;
+
+// Which equipment slot an item goes into when a storage inventory is copied onto its stand.
+// Worked out once per Material, so sorting a slot is an array lookup instead of string checks.
+public enum ArmorPiece {
+    HELMET,
+    CHESTPLATE,
+    LEGGINGS,
+    BOOTS,
+    NONE;
+
+    private static final ArmorPiece[] BY_MATERIAL;
+
+    static {
+        Material[] materials = Material.values();
+        BY_MATERIAL = new ArmorPiece[materials.length];
+        for (Material material : materials) {
+            BY_MATERIAL[material.ordinal()] = classify(material.name());
+        }
+    }
+
+    private static ArmorPiece classify(String type) {
+        if (type.endsWith("_HELMET") || type.contains("_HEAD") || type.equals("PLAYER_HEAD") || type.equals("SKULL") || type.equals("SKULL_ITEM")) {
+            return HELMET;
+        }
+        if (type.endsWith("_CHESTPLATE") || type.equals("ELYTRA")) {
+            return CHESTPLATE;
+        }
+        if (type.endsWith("_LEGGINGS")) {
+            return LEGGINGS;
+        }
+        if (type.endsWith("_BOOTS")) {
+            return BOOTS;
+        }
+        return NONE;
+    }
+
+    public static ArmorPiece of(Material material) {
+        return BY_MATERIAL[material.ordinal()];
+    }
+}
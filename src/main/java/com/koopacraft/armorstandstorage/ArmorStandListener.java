@@ -1,9 +1,11 @@
 package com.koopacraft.armorstandstorage;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.entity.ArmorStand;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -11,6 +13,7 @@ import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.player.PlayerInteractAtEntityEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
@@ -18,32 +21,76 @@ import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.event.player.PlayerArmorStandManipulateEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ArmorStandListener implements Listener {
     private final ArmorStandStorage plugin;
-    private final HashMap<UUID, ArmorStand> openInventories = new HashMap<>();
+    // Events run on several region threads on Folia, so all of these are concurrent maps.
+    // Storage each player has open, by player
+    private final Map<UUID, StorageHolder> openInventories = new ConcurrentHashMap<>();
+    // The live storage inventory of each stand somebody has open, by stand
+    private final Map<UUID, StorageHolder> liveInventories = new ConcurrentHashMap<>();
+    // Stand each player clicked whose contents are still loading
+    private final Map<UUID, ArmorStand> openingInventories = new ConcurrentHashMap<>();
+    // Loads in flight by stand, so several clicks cost one read
+    private final Map<UUID, CompletableFuture<ItemStack[]>> pendingLoads = new ConcurrentHashMap<>();
+    // Storage each player is turning the page of, its page closing doesn't close the storage
+    private final Map<UUID, StorageHolder> turningPages = new ConcurrentHashMap<>();
+    // Marks page buttons, so no item a player has can stack onto one
+    private final NamespacedKey buttonKey;
     private final boolean isLegacyVersion;
+    // Timers of the handlers below, see Metrics
+    private final Metrics.Handler entitiesLoadHandler;
+    private final Metrics.Handler entitiesUnloadHandler;
+    private final Metrics.Handler placeHandler;
+    private final Metrics.Handler removeHandler;
+    private final Metrics.Handler interactHandler;
+    private final Metrics.Handler openTaskHandler;
+    private final Metrics.Handler manipulateHandler;
+    private final Metrics.Handler manipulateTaskHandler;
+    private final Metrics.Handler clickHandler;
+    private final Metrics.Handler clickTaskHandler;
+    private final Metrics.Handler dragHandler;
+    private final Metrics.Handler dragTaskHandler;
+    private final Metrics.Handler closeHandler;
 
     public ArmorStandListener(ArmorStandStorage plugin) {
         this.plugin = plugin;
+        entitiesLoadHandler = plugin.getMetrics().handler("entities-load");
+        entitiesUnloadHandler = plugin.getMetrics().handler("entities-unload");
+        placeHandler = plugin.getMetrics().handler("place");
+        removeHandler = plugin.getMetrics().handler("remove");
+        interactHandler = plugin.getMetrics().handler("interact");
+        openTaskHandler = plugin.getMetrics().handler("open-task");
+        manipulateHandler = plugin.getMetrics().handler("manipulate");
+        manipulateTaskHandler = plugin.getMetrics().handler("manipulate-task");
+        clickHandler = plugin.getMetrics().handler("click");
+        clickTaskHandler = plugin.getMetrics().handler("click-task");
+        dragHandler = plugin.getMetrics().handler("drag");
+        dragTaskHandler = plugin.getMetrics().handler("drag-task");
+        closeHandler = plugin.getMetrics().handler("close");
         // Check if we're running on a legacy version (pre 1.13)
         isLegacyVersion = !isMethodAvailable("org.bukkit.entity.ArmorStand", "getEquipment");
+        buttonKey = new NamespacedKey(plugin, "button");
         
-        // Register all existing armor stands on startup
-        Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            for (org.bukkit.World world : Bukkit.getWorlds()) {
-                for (Entity entity : world.getEntities()) {
-                    if (entity instanceof ArmorStand) {
-                        plugin.getDatabase().registerArmorStand(entity.getLocation());
-                    }
-                }
-            }
-            plugin.getLogger().info("Registered all existing armor stands!");
-        }, 20L);
+        // Stands in chunks that were loaded before we were enabled
+        plugin.getScheduler().forEachLoadedChunk(chunk ->
+                plugin.getInventoryStore().standsLoaded(Arrays.asList(chunk.getEntities())));
     }
 
     private boolean isMethodAvailable(String className, String methodName) {
@@ -56,46 +103,51 @@ public class ArmorStandListener implements Listener {
         }
     }
 
-    private void setArmorStandEquipment(ArmorStand armorStand, ItemStack[] contents) {
+    // Package-private for the benchmarks module
+    void setArmorStandEquipment(ArmorStand armorStand, ItemStack[] contents) {
         EntityEquipment equipment = armorStand.getEquipment();
         if (equipment == null) return;
 
-        equipment.clear();
-        
         try {
-            // Scan entire inventory for armor and items
+            // The last armor piece of each kind is worn, slots 4 and 5 are the hands unless they hold armor
+            ItemStack helmet = null, chestplate = null, leggings = null, boots = null, mainHand = null, offHand = null;
             for (int i = 0; i < contents.length; i++) {
                 ItemStack item = contents[i];
                 if (item == null) continue;
 
-                String type = item.getType().name().toUpperCase();
-                
-                // Check for armor pieces
-                if (type.endsWith("_HELMET") || type.contains("_HEAD") || type.equals("PLAYER_HEAD") || type.equals("SKULL") || type.equals("SKULL_ITEM")) {
-                    equipment.setHelmet(item);
-                }
-                else if (type.endsWith("_CHESTPLATE") || type.equals("ELYTRA")) {
-                    equipment.setChestplate(item);
-                }
-                else if (type.endsWith("_LEGGINGS")) {
-                    equipment.setLeggings(item);
-                }
-                else if (type.endsWith("_BOOTS")) {
-                    equipment.setBoots(item);
-                }
-                // Handle weapons/tools/items for hands
-                else if (i == 4 || (equipment.getHelmet() == null && equipment.getChestplate() == null 
-                        && equipment.getLeggings() == null && equipment.getBoots() == null)) {
-                    if (isLegacyVersion) {
-                        equipment.setItemInHand(item);
-                    } else {
-                        equipment.setItemInMainHand(item);
-                    }
-                }
-                else if (!isLegacyVersion && i == 5) {
-                    equipment.setItemInOffHand(item);
+                switch (ArmorPiece.of(item.getType())) {
+                    case HELMET:
+                        helmet = item;
+                        break;
+                    case CHESTPLATE:
+                        chestplate = item;
+                        break;
+                    case LEGGINGS:
+                        leggings = item;
+                        break;
+                    case BOOTS:
+                        boots = item;
+                        break;
+                    default:
+                        if (i == 4) {
+                            mainHand = item;
+                        } else if (i == 5 && !isLegacyVersion) {
+                            offHand = item;
+                        }
                 }
             }
+
+            // Only touch the slots that differ, each change is sent to every player tracking the stand
+            if (!isSameItem(equipment.getHelmet(), helmet)) equipment.setHelmet(helmet);
+            if (!isSameItem(equipment.getChestplate(), chestplate)) equipment.setChestplate(chestplate);
+            if (!isSameItem(equipment.getLeggings(), leggings)) equipment.setLeggings(leggings);
+            if (!isSameItem(equipment.getBoots(), boots)) equipment.setBoots(boots);
+            if (isLegacyVersion) {
+                if (!isSameItem(equipment.getItemInHand(), mainHand)) equipment.setItemInHand(mainHand);
+            } else {
+                if (!isSameItem(equipment.getItemInMainHand(), mainHand)) equipment.setItemInMainHand(mainHand);
+                if (!isSameItem(equipment.getItemInOffHand(), offHand)) equipment.setItemInOffHand(offHand);
+            }
         } catch (Exception e) {
             plugin.getLogger().warning("Error setting armor stand equipment: " + e.getMessage());
         }
@@ -123,27 +175,87 @@ public class ArmorStandListener implements Listener {
         }
     }
 
+    @EventHandler
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        Metrics.HandlerTimer timer = entitiesLoadHandler.start();
+        try {
+            plugin.getInventoryStore().standsLoaded(event.getEntities());
+            plugin.getInventoryStore().chunkLoaded(event.getChunk());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @EventHandler
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        Metrics.HandlerTimer timer = entitiesUnloadHandler.start();
+        try {
+            plugin.getInventoryStore().chunkUnloaded(event.getChunk());
+        } finally {
+            timer.stop();
+        }
+    }
+
     @EventHandler
     public void onArmorStandPlace(CreatureSpawnEvent event) {
-        if (event.getEntityType() == EntityType.ARMOR_STAND) {
-            plugin.getDatabase().registerArmorStand(event.getLocation());
+        // Fires for every creature, the timer is only for armor stands
+        if (event.getEntityType() != EntityType.ARMOR_STAND) {
+            return;
+        }
+        Metrics.HandlerTimer timer = placeHandler.start();
+        try {
+            plugin.getInventoryStore().standsLoaded(Collections.singletonList(event.getEntity()));
             plugin.debug("New armor stand registered at: " + formatLocation(event.getLocation()));
+        } finally {
+            timer.stop();
         }
     }
 
     @EventHandler
     public void onArmorStandRemove(EntityDeathEvent event) {
-        if (event.getEntityType() == EntityType.ARMOR_STAND) {
-            if (plugin.getDatabase().isRegistered(event.getEntity().getLocation())) {
-                plugin.getDatabase().removeArmorStand(event.getEntity().getLocation());
-                plugin.getLogger().info("Registered armor stand removed at: " + formatLocation(event.getEntity().getLocation()));
-            } else {
-                plugin.getLogger().info("Unregistered armor stand removed at: " + formatLocation(event.getEntity().getLocation()));
+        // Fires for every creature, the timer is only for armor stands
+        if (event.getEntityType() != EntityType.ARMOR_STAND) {
+            return;
+        }
+        Metrics.HandlerTimer timer = removeHandler.start();
+        try {
+            release(event.getEntity().getUniqueId());
+            plugin.getInventoryStore().remove((ArmorStand) event.getEntity());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    // Closes the storage of the stand for anyone looking at it, without saving it back. Clicks and
+    // closes that come after this store nothing. Safe to call from any thread.
+    public void release(UUID id) {
+        StorageHolder live = liveInventories.remove(id);
+        if (live != null) {
+            live.setRemoved();
+            for (HumanEntity viewer : live.getViewers()) {
+                plugin.getScheduler().execute(viewer, viewer::closeInventory);
             }
         }
     }
 
-    private String formatLocation(org.bukkit.Location loc) {
+    // Closes a shared storage for its viewers so a bigger one can take its place. What it holds is queued
+    // first and nothing can be changed in it after, so the next load sees all of it. Runs on the thread
+    // owning the stand.
+    private void replace(StorageHolder holder) {
+        holder.setRemoved();
+        liveInventories.remove(holder.getArmorStand().getUniqueId(), holder);
+        // Closing by its last viewer may be saving it at the same time, each change is only stored once
+        for (int page = 0; page < holder.getPageCount(); page++) {
+            if (holder.getPage(page) != null) {
+                queuePageChanges(holder, page);
+            }
+        }
+        for (HumanEntity viewer : holder.getViewers()) {
+            plugin.getScheduler().execute(viewer, viewer::closeInventory);
+        }
+    }
+
+    static String formatLocation(org.bukkit.Location loc) {
         return String.format("World: %s, X: %.2f, Y: %.2f, Z: %.2f", 
             loc.getWorld().getName(), loc.getX(), loc.getY(), loc.getZ());
     }
@@ -153,36 +265,134 @@ public class ArmorStandListener implements Listener {
         if (!(event.getRightClicked() instanceof ArmorStand)) {
             return;
         }
+        Metrics.HandlerTimer timer = interactHandler.start();
+        try {
+            Player player = event.getPlayer();
+            ArmorStand armorStand = (ArmorStand) event.getRightClicked();
+
+            // Check if in disabled world
+            if (plugin.isWorldDisabled(player.getWorld().getName())) {
+                player.sendMessage(plugin.getMessage("blocked-world"));
+                return;
+            }
+
+            // Check if player is sneaking
+            if (!player.isSneaking()) {
+                return; // Allow normal armor stand interaction when not sneaking
+            }
+
+            // Check permission
+            if (!player.hasPermission("armorstandstorage.use")) {
+                player.sendMessage(plugin.getMessage("no-permission"));
+                return;
+            }
+
+            event.setCancelled(true);
+            open(player, armorStand, plugin.getCapacity(armorStand, player));
+        } finally {
+            timer.stop();
+        }
+    }
 
-        Player player = event.getPlayer();
-        ArmorStand armorStand = (ArmorStand) event.getRightClicked();
+    // Opens the storage of the stand for the player, loading it first unless somebody has it open already.
+    // Runs on the thread owning the stand.
+    private void open(Player player, ArmorStand armorStand, int capacity) {
+        StorageHolder live = liveInventories.get(armorStand.getUniqueId());
+        if (live != null && live.getCapacity() < capacity) {
+            // Opened by somebody with a smaller capacity, this player needs a bigger one
+            replace(live);
+            live = null;
+        }
+        // Somebody has it open already, look at the same inventory
+        if (live != null && view(player, live)) {
+            openingInventories.remove(player.getUniqueId());
+            return;
+        }
 
-        // Check if in disabled world
-        if (plugin.isWorldDisabled(player.getWorld().getName())) {
-            player.sendMessage(plugin.getMessage("blocked-world"));
+        // Still waiting for this stand from an earlier click
+        if (armorStand.equals(openingInventories.get(player.getUniqueId()))) {
             return;
         }
+        openingInventories.put(player.getUniqueId(), armorStand);
+
+        // Players opening the same stand share one load
+        UUID standId = armorStand.getUniqueId();
+        CompletableFuture<ItemStack[]> load = pendingLoads.get(standId);
+        if (load == null) {
+            // Only what the first page can show, whatever the capacity of whoever opens it first
+            load = plugin.getInventoryStore().load(armorStand, 0, StorageHolder.SINGLE_PAGE_SLOTS)
+                    .orTimeout(plugin.getLoadTimeout(), TimeUnit.MILLISECONDS);
+            if (!load.isDone()) {
+                CompletableFuture<ItemStack[]> started = load;
+                pendingLoads.put(standId, started);
+                started.whenComplete((items, error) -> pendingLoads.remove(standId, started));
+            }
+        }
 
-        // Check if player is sneaking
-        if (!player.isSneaking()) {
-            return; // Allow normal armor stand interaction when not sneaking
+        if (load.isDone()) {
+            // Already in memory, no need to wait a tick
+            load.whenComplete((items, error) -> openStorage(player, armorStand, capacity, items, error));
+        } else {
+            // The player is next to the stand, so the thread owning the player owns the stand too
+            load.whenComplete((items, error) -> plugin.getScheduler().runForEntity(player, () -> {
+                Metrics.HandlerTimer taskTimer = openTaskHandler.start();
+                try {
+                    openStorage(player, armorStand, capacity, items, error);
+                } finally {
+                    taskTimer.stop();
+                }
+            }, () -> openingInventories.remove(player.getUniqueId(), armorStand)));
         }
+    }
 
-        // Check permission
-        if (!player.hasPermission("armorstandstorage.use")) {
-            player.sendMessage(plugin.getMessage("no-permission"));
+    // Opens the storage once its contents are loaded. A failed load opens nothing, so an
+    // empty inventory can never be saved over the real one.
+    private void openStorage(Player player, ArmorStand armorStand, int capacity, ItemStack[] savedItems, Throwable error) {
+        if (!armorStand.equals(openingInventories.get(player.getUniqueId()))) {
+            // Went for another stand meanwhile
             return;
         }
+        openingInventories.remove(player.getUniqueId());
 
-        event.setCancelled(true);
+        if (error != null) {
+            loadFailed(player, armorStand, error);
+            return;
+        }
+        if (!player.isOnline() || !armorStand.isValid()) {
+            return;
+        }
 
-        // Create inventory with configured size
-        int size = Math.max(27, plugin.getInventoryRows() * 9);
-        Inventory inventory = Bukkit.createInventory(null, size, plugin.getInventoryTitle());
+        // Another player's load may have opened it first, that copy is the newer one
+        while (true) {
+            StorageHolder holder = liveInventories.computeIfAbsent(armorStand.getUniqueId(),
+                    id -> createStorage(armorStand, capacity, savedItems));
+            if (holder.getCapacity() < capacity) {
+                // Too small for this player, and what was loaded may be older than what it holds.
+                // Close it and load again for a bigger one.
+                replace(holder);
+                open(player, armorStand, capacity);
+                return;
+            }
+            if (view(player, holder)) {
+                return;
+            }
+            // Its last viewer closed it just now, start over with a fresh one
+            liveInventories.remove(armorStand.getUniqueId(), holder);
+        }
+    }
+
+    private void loadFailed(Player player, ArmorStand armorStand, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        plugin.getLogger().warning("Couldn't load armor stand storage at " + formatLocation(armorStand.getLocation())
+                + ": " + (cause instanceof TimeoutException ? "timed out" : cause.toString()));
+        player.sendMessage(plugin.getMessage("load-failed"));
+    }
+
+    private StorageHolder createStorage(ArmorStand armorStand, int capacity, ItemStack[] savedItems) {
+        StorageHolder holder = new StorageHolder(armorStand, capacity);
+        Inventory inventory = createPage(holder, 0);
+        int size = holder.getSlots(0);
 
-        // First, check if there's saved inventory data
-        ItemStack[] savedItems = plugin.getDatabase().getArmorStandInventory(armorStand.getLocation());
-        
         if (savedItems.length > 0 && hasItems(savedItems)) {
             // Load saved inventory
             for (int i = 0; i < Math.min(savedItems.length, size); i++) {
@@ -204,14 +414,177 @@ public class ArmorStandListener implements Listener {
                     inventory.setItem(5, equipment.getItemInOffHand());
                 }
 
-                // Save this initial state to database
-                plugin.getDatabase().saveArmorStand(armorStand.getLocation(), inventory.getContents());
+                // Queue this initial state for storage, later pages may hold items already
+                BitSet equipmentSlots = new BitSet();
+                equipmentSlots.set(0, isLegacyVersion ? 5 : 6);
+                plugin.getInventoryStore().queueSave(armorStand, Arrays.copyOf(inventory.getContents(), size), equipmentSlots);
             }
         }
+        holder.setPage(0, inventory, copyContents(Arrays.copyOf(inventory.getContents(), size)));
+        return holder;
+    }
+
+    // An empty page of the storage. Pages of a paged storage get a row of buttons below the slots.
+    private Inventory createPage(StorageHolder holder, int page) {
+        int slots = holder.getSlots(page);
+        if (!holder.isPaged()) {
+            return Bukkit.createInventory(holder, slots, plugin.getInventoryTitle());
+        }
+        Inventory inventory = Bukkit.createInventory(holder, slots + 9,
+                plugin.getInventoryTitle() + " (" + (page + 1) + "/" + holder.getPageCount() + ")");
+        ItemStack filler = button(Material.GRAY_STAINED_GLASS_PANE, " ");
+        for (int i = slots; i < slots + 9; i++) {
+            inventory.setItem(i, filler);
+        }
+        if (page > 0) {
+            inventory.setItem(slots, button(Material.ARROW, plugin.getMessage("previous-page")));
+        }
+        if (page < holder.getPageCount() - 1) {
+            inventory.setItem(slots + 8, button(Material.ARROW, plugin.getMessage("next-page")));
+        }
+        return inventory;
+    }
+
+    private ItemStack button(Material material, String name) {
+        ItemStack item = new ItemStack(material);
+        ItemMeta meta = item.getItemMeta();
+        meta.setDisplayName(name);
+        meta.getPersistentDataContainer().set(buttonKey, PersistentDataType.BYTE, (byte) 1);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    // Whether the raw slot of the page is in its button row
+    private static boolean isButtonRow(StorageHolder holder, int page, int rawSlot, int size) {
+        return holder.isPaged() && rawSlot >= holder.getSlots(page) && rawSlot < size;
+    }
+
+    // Shows another page to a player looking at the storage. Pages nobody has looked at yet are
+    // loaded first, decoding only their own slots. Runs on the thread owning the player.
+    private void turnPage(Player player, StorageHolder holder, int page) {
+        ArmorStand armorStand = holder.getArmorStand();
+        if (openInventories.get(player.getUniqueId()) != holder || holder.isReleased() || holder.isRemoved()) {
+            return;
+        }
+        Inventory inventory = holder.getPage(page);
+        if (inventory != null) {
+            showPage(player, holder, inventory);
+            return;
+        }
 
-        // Open inventory
-        player.openInventory(inventory);
-        openInventories.put(player.getUniqueId(), armorStand);
+        int first = holder.getFirstSlot(page);
+        int slots = holder.getSlots(page);
+        plugin.getInventoryStore().load(armorStand, first, first + slots)
+                .orTimeout(plugin.getLoadTimeout(), TimeUnit.MILLISECONDS)
+                .whenComplete((items, error) -> plugin.getScheduler().runForEntity(player, () -> {
+                    if (error != null) {
+                        loadFailed(player, armorStand, error);
+                        return;
+                    }
+                    if (openInventories.get(player.getUniqueId()) != holder || holder.isReleased()) {
+                        return;
+                    }
+                    // Another viewer may have loaded it meanwhile, theirs is the one in use
+                    Inventory loaded = createPage(holder, page);
+                    for (int i = 0; i < slots && first + i < items.length; i++) {
+                        loaded.setItem(i, items[first + i]);
+                    }
+                    showPage(player, holder, holder.setPage(page, loaded, copyContents(Arrays.copyOf(loaded.getContents(), slots))));
+                }));
+    }
+
+    private void showPage(Player player, StorageHolder holder, Inventory inventory) {
+        turningPages.put(player.getUniqueId(), holder);
+        try {
+            player.openInventory(inventory);
+        } finally {
+            turningPages.remove(player.getUniqueId(), holder);
+        }
+        // Another plugin stopped the new page from opening after the old one was closed
+        if (player.getOpenInventory().getTopInventory().getHolder(false) != holder
+                && openInventories.remove(player.getUniqueId(), holder)) {
+            close(holder);
+        }
+    }
+
+    // Returns false if the holder was released by its last viewer and can't be used anymore
+    private boolean view(Player player, StorageHolder holder) {
+        if (!holder.addViewer()) {
+            return false;
+        }
+        // Opening closes whatever the player had open before, which may be another storage. Its close
+        // event must still find that storage in openInventories, so the new one is recorded afterwards.
+        if (player.openInventory(holder.getInventory()) == null) {
+            // Another plugin stopped it
+            if (holder.removeViewer() == 0) {
+                liveInventories.remove(holder.getArmorStand().getUniqueId(), holder);
+            }
+            return true;
+        }
+        openInventories.put(player.getUniqueId(), holder);
+        return true;
+    }
+
+    // Slots of the page that differ from what it held when it was last saved, numbered within
+    // the page. The given contents count as saved afterwards.
+    private BitSet changedSlots(StorageHolder holder, int page, ItemStack[] contents) {
+        synchronized (holder) {
+            ItemStack[] saved = holder.getSaved(page);
+            BitSet changed = new BitSet(contents.length);
+            for (int i = 0; i < contents.length; i++) {
+                if (!isSameItem(saved[i], contents[i])) {
+                    changed.set(i);
+                    saved[i] = contents[i] == null ? null : contents[i].clone();
+                }
+            }
+            return changed;
+        }
+    }
+
+    // Queues the slots of the page that changed since it was last saved. Runs on the thread owning the stand.
+    private void queuePageChanges(StorageHolder holder, int page) {
+        ArmorStand armorStand = holder.getArmorStand();
+        ItemStack[] contents = holder.getPageContents(page);
+        BitSet changed = changedSlots(holder, page, contents);
+        if (changed.isEmpty()) {
+            // Clicks that moved nothing in the storage cost nothing more
+            return;
+        }
+        // The stand wears what is on the first page
+        if (page == 0) {
+            setArmorStandEquipment(armorStand, contents);
+        }
+        int first = holder.getFirstSlot(page);
+        ItemStack[] storage = new ItemStack[first + contents.length];
+        System.arraycopy(contents, 0, storage, first, contents.length);
+        plugin.getInventoryStore().queueSave(armorStand, storage, shift(changed, first));
+    }
+
+    private static BitSet shift(BitSet slots, int offset) {
+        BitSet shifted = new BitSet();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            shifted.set(offset + i);
+        }
+        return shifted;
+    }
+
+    private static boolean isSameItem(ItemStack a, ItemStack b) {
+        boolean aEmpty = a == null || a.getType().isAir();
+        boolean bEmpty = b == null || b.getType().isAir();
+        if (aEmpty || bEmpty) {
+            return aEmpty == bEmpty;
+        }
+        return a.equals(b);
+    }
+
+    private static ItemStack[] copyContents(ItemStack[] contents) {
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null) {
+                copy[i] = contents[i].clone();
+            }
+        }
+        return copy;
     }
 
     // Helper method to check if an ItemStack array has any non-null items
@@ -226,117 +599,227 @@ public class ArmorStandListener implements Listener {
 
     @EventHandler
     public void onArmorStandManipulate(PlayerArmorStandManipulateEvent event) {
-        ArmorStand armorStand = event.getRightClicked();
+        Metrics.HandlerTimer timer = manipulateHandler.start();
+        try {
+            ArmorStand armorStand = event.getRightClicked();
         
-        // Don't interfere if player is sneaking (our storage UI handles that)
-        if (event.getPlayer().isSneaking()) {
-            return;
-        }
-
-        // Schedule a task to save the new equipment state after the vanilla interaction
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            if (!plugin.getDatabase().isRegistered(armorStand.getLocation())) {
-                plugin.getDatabase().registerArmorStand(armorStand.getLocation());
+            // Don't interfere if player is sneaking (our storage UI handles that)
+            if (event.getPlayer().isSneaking()) {
+                return;
             }
+
+            // Schedule a task to save the new equipment state after the vanilla interaction
+            plugin.getScheduler().runForEntity(armorStand, () -> {
+                Metrics.HandlerTimer taskTimer = manipulateTaskHandler.start();
+                try {
+                    plugin.getInventoryStore().standsLoaded(Collections.singletonList(armorStand));
             
-            // Get current equipment and save it
-            EntityEquipment equipment = armorStand.getEquipment();
-            if (equipment != null) {
-                ItemStack[] contents = new ItemStack[27];
-                contents[0] = equipment.getHelmet();
-                contents[1] = equipment.getChestplate();
-                contents[2] = equipment.getLeggings();
-                contents[3] = equipment.getBoots();
-                if (isLegacyVersion) {
-                    contents[4] = equipment.getItemInHand();
-                } else {
-                    contents[4] = equipment.getItemInMainHand();
-                    contents[5] = equipment.getItemInOffHand();
+                    // Get current equipment and save it
+                    EntityEquipment equipment = armorStand.getEquipment();
+                    if (equipment != null) {
+                        ItemStack[] contents = new ItemStack[27];
+                        contents[0] = equipment.getHelmet();
+                        contents[1] = equipment.getChestplate();
+                        contents[2] = equipment.getLeggings();
+                        contents[3] = equipment.getBoots();
+                        if (isLegacyVersion) {
+                            contents[4] = equipment.getItemInHand();
+                        } else {
+                            contents[4] = equipment.getItemInMainHand();
+                            contents[5] = equipment.getItemInOffHand();
+                        }
+                        // Only the equipment slots, the rest of the storage is left as it is
+                        BitSet equipmentSlots = new BitSet();
+                        equipmentSlots.set(0, isLegacyVersion ? 5 : 6);
+                        plugin.getInventoryStore().queueSave(armorStand, contents, equipmentSlots);
+                        plugin.debug("Queued armor stand equipment after manual interaction");
+                    }
+                } finally {
+                    taskTimer.stop();
                 }
-                plugin.getDatabase().saveArmorStand(armorStand.getLocation(), contents);
-                plugin.debug("Saved armor stand equipment after manual interaction");
-            }
-        });
+            });
+        } finally {
+            timer.stop();
+        }
     }
 
     @EventHandler
     public void onInventoryClick(InventoryClickEvent event) {
-        Player player = (Player) event.getWhoClicked();
-        ArmorStand armorStand = openInventories.get(player.getUniqueId());
-        
-        if (armorStand == null || !event.getView().getTitle().equals(plugin.getInventoryTitle())) {
+        // Runs for every inventory on the server, so rule out everything else before timing it
+        InventoryHolder holder = event.getInventory().getHolder(false);
+        if (!(holder instanceof StorageHolder)) {
             return;
         }
+        Metrics.HandlerTimer timer = clickHandler.start();
+        try {
+            Player player = (Player) event.getWhoClicked();
+            StorageHolder storage = (StorageHolder) holder;
+            ArmorStand armorStand = storage.getArmorStand();
+            int page = storage.pageOf(event.getInventory());
+            if (openInventories.get(player.getUniqueId()) != storage || page < 0) {
+                return;
+            }
+            // Closed for everyone, nothing goes in or out anymore
+            if (storage.isRemoved()) {
+                event.setCancelled(true);
+                return;
+            }
 
-        plugin.debug("Player " + player.getName() + " clicked in armor stand inventory");
+            // Nothing goes in or out of the button row
+            int size = event.getInventory().getSize();
+            if (isButtonRow(storage, page, event.getRawSlot(), size)) {
+                event.setCancelled(true);
+                int target = event.getRawSlot() == storage.getSlots(page) ? page - 1
+                        : event.getRawSlot() == size - 1 ? page + 1 : -1;
+                if (target >= 0 && target < storage.getPageCount()) {
+                    // Not while the event is running, opening an inventory closes the clicked one
+                    plugin.getScheduler().runForEntity(player, () -> turnPage(player, storage, target));
+                }
+                return;
+            }
+
+            plugin.debug("Player " + player.getName() + " clicked in armor stand inventory");
         
-        // Update equipment immediately after click
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            Inventory inv = event.getView().getTopInventory();
-            ItemStack[] contents = inv.getContents();
-            
-            // Update armor stand equipment
-            setArmorStandEquipment(armorStand, contents);
-            
-            // Save to database
-            plugin.getDatabase().saveArmorStand(armorStand.getLocation(), contents);
-        });
+            // Update equipment immediately after click, on the thread that owns the stand
+            plugin.getScheduler().runForEntity(armorStand, () -> {
+                Metrics.HandlerTimer taskTimer = clickTaskHandler.start();
+                try {
+                    // Closed by its last viewer in the meantime, closing already saved everything
+                    if (liveInventories.get(armorStand.getUniqueId()) != storage) {
+                        return;
+                    }
+                    // Update the equipment and queue the changed slots for the next batched save
+                    queuePageChanges(storage, page);
+                } finally {
+                    taskTimer.stop();
+                }
+            });
+        } finally {
+            timer.stop();
+        }
     }
 
     @EventHandler
     public void onInventoryDrag(InventoryDragEvent event) {
-        Player player = (Player) event.getWhoClicked();
-        ArmorStand armorStand = openInventories.get(player.getUniqueId());
-        
-        if (armorStand == null || !event.getView().getTitle().equals(plugin.getInventoryTitle())) {
+        // Runs for every inventory on the server, so rule out everything else before timing it
+        InventoryHolder holder = event.getInventory().getHolder(false);
+        if (!(holder instanceof StorageHolder)) {
             return;
         }
+        Metrics.HandlerTimer timer = dragHandler.start();
+        try {
+            Player player = (Player) event.getWhoClicked();
+            StorageHolder storage = (StorageHolder) holder;
+            ArmorStand armorStand = storage.getArmorStand();
+            int page = storage.pageOf(event.getInventory());
+            if (openInventories.get(player.getUniqueId()) != storage || page < 0) {
+                return;
+            }
+            // Closed for everyone, nothing goes in or out anymore
+            if (storage.isRemoved()) {
+                event.setCancelled(true);
+                return;
+            }
 
-        plugin.debug("Player " + player.getName() + " dragged in armor stand inventory");
+            for (int rawSlot : event.getRawSlots()) {
+                if (isButtonRow(storage, page, rawSlot, event.getInventory().getSize())) {
+                    event.setCancelled(true);
+                    return;
+                }
+            }
+
+            plugin.debug("Player " + player.getName() + " dragged in armor stand inventory");
         
-        // Update equipment immediately after drag
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            Inventory inv = event.getView().getTopInventory();
-            ItemStack[] contents = inv.getContents();
-            
-            // Update armor stand equipment
-            setArmorStandEquipment(armorStand, contents);
-            
-            // Save to database
-            plugin.getDatabase().saveArmorStand(armorStand.getLocation(), contents);
-        });
+            // Update equipment immediately after drag, on the thread that owns the stand
+            plugin.getScheduler().runForEntity(armorStand, () -> {
+                Metrics.HandlerTimer taskTimer = dragTaskHandler.start();
+                try {
+                    // Closed by its last viewer in the meantime, closing already saved everything
+                    if (liveInventories.get(armorStand.getUniqueId()) != storage) {
+                        return;
+                    }
+                    // Update the equipment and queue the changed slots for the next batched save
+                    queuePageChanges(storage, page);
+                } finally {
+                    taskTimer.stop();
+                }
+            });
+        } finally {
+            timer.stop();
+        }
     }
 
     @EventHandler
     public void onInventoryClose(InventoryCloseEvent event) {
-        Player player = (Player) event.getPlayer();
-        ArmorStand armorStand = openInventories.remove(player.getUniqueId());
-
-        if (armorStand == null || !event.getView().getTitle().equals(plugin.getInventoryTitle())) {
+        // Runs for every inventory on the server, so rule out everything else before timing it
+        InventoryHolder holder = event.getInventory().getHolder(false);
+        if (!(holder instanceof StorageHolder)) {
             return;
         }
+        Metrics.HandlerTimer timer = closeHandler.start();
+        try {
+            Player player = (Player) event.getPlayer();
+            StorageHolder storage = (StorageHolder) holder;
+            ArmorStand armorStand = storage.getArmorStand();
+
+            // Turning to another page, the storage stays open
+            if (turningPages.get(player.getUniqueId()) == storage) {
+                int page = storage.pageOf(event.getInventory());
+                if (page >= 0 && !storage.isRemoved()) {
+                    plugin.getScheduler().execute(armorStand, () -> queuePageChanges(storage, page));
+                }
+                return;
+            }
 
-        // Save the exact inventory contents, preserving null slots
-        Inventory inv = event.getView().getTopInventory();
-        ItemStack[] contents = new ItemStack[inv.getSize()];
-        
-        // Count non-null items while copying contents
-        int itemCount = 0;
-        for (int i = 0; i < inv.getSize(); i++) {
-            contents[i] = inv.getItem(i);
-            if (contents[i] != null) {
-                itemCount++;
+            if (!openInventories.remove(player.getUniqueId(), storage)) {
+                return;
             }
+            close(storage);
+            plugin.debug("Saved armor stand inventory for " + player.getName());
+        } finally {
+            timer.stop();
         }
+    }
 
-        // Save to database
-        plugin.getDatabase().saveArmorStand(armorStand.getLocation(), contents);
+    // A viewer left the storage. The last one to leave saves it.
+    private void close(StorageHolder storage) {
+        // Others are still looking at it
+        if (storage.removeViewer() > 0) {
+            return;
+        }
+        ArmorStand armorStand = storage.getArmorStand();
+        liveInventories.remove(armorStand.getUniqueId(), storage);
+        if (storage.isRemoved()) {
+            return;
+        }
 
-        // Update armor stand equipment
-        setArmorStandEquipment(armorStand, contents);
+        // Save whatever changed on any page right away, together with any queued changes
+        ItemStack[] contents = new ItemStack[storage.getCapacity()];
+        BitSet changed = new BitSet();
+        int itemCount = 0;
+        for (int page = 0; page < storage.getPageCount(); page++) {
+            if (storage.getPage(page) == null) {
+                continue;
+            }
+            ItemStack[] pageContents = storage.getPageContents(page);
+            int first = storage.getFirstSlot(page);
+            System.arraycopy(pageContents, 0, contents, first, pageContents.length);
+            changed.or(shift(changedSlots(storage, page, pageContents), first));
+            for (ItemStack item : pageContents) {
+                if (item != null) {
+                    itemCount++;
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            ItemStack[] equipment = storage.getPageContents(0);
+            plugin.getScheduler().execute(armorStand, () -> {
+                plugin.getInventoryStore().saveNow(armorStand, contents, changed);
+                setArmorStandEquipment(armorStand, equipment);
+            });
+        }
 
         plugin.debug("Saving inventory with " + contents.length + " slots");
         plugin.debug("Found " + itemCount + " items to save");
-        plugin.debug("Saved armor stand inventory for " + player.getName());
     }
-} 
\ No newline at end of file
+}
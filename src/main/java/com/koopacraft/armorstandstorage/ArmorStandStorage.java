@@ -1,14 +1,33 @@
 package com.koopacraft.armorstandstorage;
 
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Player;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
+import java.util.UUID;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ArmorStandStorage extends JavaPlugin {
+    // 100 pages, far more than anyone should need
+    public static final int MAX_CAPACITY = 100 * StorageHolder.PAGE_SLOTS;
+
     private Database database;
+    private InventoryStore inventoryStore;
+    private ArmorStandListener listener;
+    private Metrics metrics;
+    private Scheduler scheduler;
     private List<String> disabledWorlds;
     private boolean debugMode;
+    // Capacity given to a single stand with /asstorage capacity
+    private NamespacedKey capacityKey;
+    private Backups backups;
 
     @Override
     public void onEnable() {
@@ -21,12 +40,49 @@ public class ArmorStandStorage extends JavaPlugin {
             disabledWorlds = new ArrayList<>();
         }
         debugMode = getConfig().getBoolean("debug", false);
+        capacityKey = new NamespacedKey(this, "capacity");
+        
+        // Region threads on Folia, the main thread on Paper
+        scheduler = new Scheduler(this);
+        
+        // Timings and counters, needed by everything below
+        metrics = new Metrics();
+        startMetrics();
         
         // Initialize database
         database = new Database(this, new File(getDataFolder(), "armorstands.db"));
         
+        // Convert old Base64 inventories in the background
+        startLegacyMigration();
+        
+        // Delete stored items nothing refers to anymore
+        startItemCollection();
+        
+        // Give stored items their search keys for /asstorage find
+        startItemIndexing();
+        
+        // Copy the database on a schedule while the server runs
+        backups = new Backups(this);
+        backups.start();
+        
+        // Pick where inventories live
+        if (getStorageMode().equals("entity")) {
+            inventoryStore = new EntityStore(this, getConfig().getBoolean("storage.migrate-from-database", false));
+        } else {
+            inventoryStore = new DatabaseStore(this);
+        }
+        
         // Register events
-        getServer().getPluginManager().registerEvents(new ArmorStandListener(this), this);
+        listener = new ArmorStandListener(this);
+        getServer().getPluginManager().registerEvents(listener, this);
+        
+        // Register commands
+        StorageCommand storageCommand = new StorageCommand(this);
+        getCommand("asstorage").setExecutor(storageCommand);
+        getCommand("asstorage").setTabCompleter(storageCommand);
+        
+        // Let other plugins read and change stored inventories
+        getServer().getServicesManager().register(StorageService.class, new DatabaseStorageService(this), this, ServicePriority.Normal);
         
         // Log startup
         getLogger().info("ArmorStandStorage has been enabled!");
@@ -37,16 +93,131 @@ public class ArmorStandStorage extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        getServer().getServicesManager().unregisterAll(this);
+        // Write out anything still queued before the connection goes away
+        if (inventoryStore != null) {
+            inventoryStore.shutdown();
+        }
+        if (backups != null) {
+            backups.stop();
+        }
         if (database != null) {
+            InventoryCache cache = database.getCache();
+            debug("Inventory cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+                    + cache.getEvictions() + " evictions");
             database.close();
         }
         getLogger().info("ArmorStandStorage has been disabled!");
     }
 
+    private void startMetrics() {
+        scheduler.runGlobalTimer(metrics::endTick, 1L, 1L);
+
+        long interval = getMetricsDumpInterval();
+        if (interval > 0) {
+            File file = new File(getDataFolder(), getConfig().getString("metrics.dump-file", "metrics.log"));
+            scheduler.runAsyncTimer(task -> metrics.dump(this, file), interval * 20L, interval * 20L);
+        }
+    }
+
+    private void startLegacyMigration() {
+        scheduler.runAsyncTimer(task -> {
+            if (database.migrateLegacyInventories(50) == 0) {
+                task.cancel();
+                String summary = database.getLegacyMigrationSummary();
+                if (summary != null) {
+                    getLogger().info("Inventory format conversion finished: " + summary);
+                }
+            }
+        }, 100L, 20L);
+    }
+
+    private void startItemCollection() {
+        long interval = getItemCollectionInterval();
+        if (interval <= 0) {
+            return;
+        }
+        scheduler.runAsyncTimer(task -> database.collectItemsAsync().thenAccept(removed -> {
+            if (removed > 0) {
+                debug("Deleted " + removed + " stored items that are no longer used");
+            }
+        }), interval * 20L, interval * 20L);
+    }
+
+    private void startItemIndexing() {
+        // Keeps running, imports bring in items without keys at any time. A pass is only queued once
+        // the one before it is done, so a slow backfill doesn't pile up in front of the saves.
+        AtomicBoolean indexing = new AtomicBoolean();
+        scheduler.runAsyncTimer(task -> {
+            if (!indexing.compareAndSet(false, true)) {
+                return;
+            }
+            database.indexItemsAsync(500).whenComplete((indexed, error) -> {
+                indexing.set(false);
+                if (indexed != null && indexed > 0) {
+                    debug("Indexed " + indexed + " stored items for searching");
+                }
+            });
+        }, 200L, 20L);
+    }
+
     public Database getDatabase() {
         return database;
     }
 
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public Backups getBackups() {
+        return backups;
+    }
+
+    public InventoryStore getInventoryStore() {
+        return inventoryStore;
+    }
+
+    // The stored contents of these stands are about to be replaced from outside, e.g. by an import.
+    // Open storages are closed without saving and queued saves dropped, so neither writes the old
+    // contents back over the new ones. Safe to call from any thread.
+    public void releaseStands(Collection<UUID> ids) {
+        InventoryStore store = inventoryStore;
+        for (UUID id : ids) {
+            if (listener != null) {
+                listener.release(id);
+            }
+            if (store instanceof DatabaseStore) {
+                ((DatabaseStore) store).getSaveQueue().discard(id);
+            }
+        }
+    }
+
+    // Switches to storing inventories on the stands and moves database rows over as their chunks load
+    public EntityStore startEntityMigration() {
+        getConfig().set("storage.mode", "entity");
+        getConfig().set("storage.migrate-from-database", true);
+        saveConfig();
+
+        if (inventoryStore instanceof EntityStore) {
+            EntityStore entityStore = (EntityStore) inventoryStore;
+            entityStore.startMigration();
+            return entityStore;
+        }
+
+        // Queued saves have to reach the database before rows are read so they are moved along with
+        // everything else. That flush runs off this thread, a big queue or a slow database would stall
+        // the tick, and the new store holds its reads back until it is done.
+        DatabaseStore previous = (DatabaseStore) inventoryStore;
+        EntityStore entityStore = new EntityStore(this, true);
+        inventoryStore = entityStore;
+        entityStore.startMigration(previous.shutdownAsync());
+        return entityStore;
+    }
+
     public String getMessage(String path) {
         return getConfig().getString("messages." + path, "Message not found: " + path);
     }
@@ -63,6 +234,97 @@ public class ArmorStandStorage extends JavaPlugin {
         return getConfig().getInt("storage.inventory-rows", 3);
     }
 
+    // Slots of storage the player gets at the stand: the stand's own capacity if it was given one, otherwise
+    // the biggest of storage.capacities the player has the permission for, at least storage.inventory-rows.
+    // Call on the thread owning the stand.
+    public int getCapacity(ArmorStand armorStand, Player player) {
+        Integer own = armorStand.getPersistentDataContainer().get(capacityKey, PersistentDataType.INTEGER);
+        int capacity;
+        if (own != null) {
+            capacity = own;
+        } else {
+            capacity = Math.max(27, getInventoryRows() * 9);
+            ConfigurationSection tiers = getConfig().getConfigurationSection("storage.capacities");
+            if (tiers != null) {
+                for (String tier : tiers.getKeys(false)) {
+                    if (player.hasPermission("armorstandstorage.capacity." + tier)) {
+                        capacity = Math.max(capacity, tiers.getInt(tier));
+                    }
+                }
+            }
+        }
+        // Whole rows only
+        return Math.max(9, Math.min(MAX_CAPACITY, (capacity + 8) / 9 * 9));
+    }
+
+    public NamespacedKey getCapacityKey() {
+        return capacityKey;
+    }
+
+    // Milliseconds an opening storage may wait for its contents before giving up
+    public long getLoadTimeout() {
+        return Math.max(1, getConfig().getLong("storage.load-timeout", 5000));
+    }
+
+    public String getStorageMode() {
+        return getConfig().getString("storage.mode", "database").toLowerCase();
+    }
+
+    public long getSaveInterval() {
+        return Math.max(1L, getConfig().getLong("storage.save-interval", 40L));
+    }
+
+    public long getCacheSize() {
+        // Configured in megabytes
+        return Math.max(0L, getConfig().getLong("storage.cache-size", 16L)) * 1024L * 1024L;
+    }
+
+    public int getReadConnections() {
+        return getConfig().getInt("storage.read-connections", 2);
+    }
+
+    public int getCompressionThreshold() {
+        return getConfig().getInt("storage.compression-threshold", 512);
+    }
+
+    public int getInternedItems() {
+        return getConfig().getInt("storage.item-cache-size", 2048);
+    }
+
+    public long getItemCollectionInterval() {
+        // Configured in minutes
+        return Math.max(0L, getConfig().getLong("storage.item-cleanup-interval", 30L)) * 60L;
+    }
+
+    public long getOrphanCheckBudget() {
+        // Configured in microseconds per tick
+        return Math.max(0L, getConfig().getLong("storage.orphan-check-budget", 200L));
+    }
+
+    public long getOrphanRetention() {
+        // Configured in hours, returned in milliseconds
+        return Math.max(0L, getConfig().getLong("storage.orphan-retention", 168L)) * 3600000L;
+    }
+
+    public long getBackupInterval() {
+        // Configured in minutes, returned in seconds
+        return Math.max(0L, getConfig().getLong("backup.interval", 360L)) * 60L;
+    }
+
+    public int getBackupsKept() {
+        return getConfig().getInt("backup.keep", 8);
+    }
+
+    public long getBackupMaxAge() {
+        // Configured in days, returned in milliseconds
+        return Math.max(0L, getConfig().getLong("backup.max-age", 14L)) * 86400000L;
+    }
+
+    public long getMetricsDumpInterval() {
+        // Configured in seconds
+        return Math.max(0L, getConfig().getLong("metrics.dump-interval", 0L));
+    }
+
     public boolean isWorldDisabled(String worldName) {
         return disabledWorlds.contains(worldName);
     }
@@ -0,0 +1,128 @@
+package com.koopacraft.armorstandstorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Copies of the database taken while the server runs, in plugins/ArmorStandStorage/backups.
+// A copy is written under a temporary name and renamed once complete, so every armorstands-*.db
+// in the folder can be restored by stopping the server and putting it in place of armorstands.db.
+// After each new copy the oldest ones are deleted, keeping at most backup.keep and none older than
+// backup.max-age, except the newest.
+public class Backups {
+    private static final String PREFIX = "armorstands-";
+    private static final String SUFFIX = ".db";
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final ArmorStandStorage plugin;
+    private final File folder;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private Scheduler.Task task;
+
+    public Backups(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "backups");
+    }
+
+    public void start() {
+        // Left behind by a server that stopped during a backup
+        File[] partial = folder.listFiles((dir, name) -> name.endsWith(PARTIAL_SUFFIX));
+        if (partial != null) {
+            for (File file : partial) {
+                file.delete();
+            }
+        }
+
+        long interval = plugin.getBackupInterval();
+        if (interval <= 0) {
+            return;
+        }
+        task = plugin.getScheduler().runAsyncTimer(self -> backup().thenAccept(file -> {
+            if (file != null) {
+                plugin.getLogger().info("Backed up the database to " + file.getName()
+                        + " (" + String.format("%.1f", file.length() / 1048576.0) + " MB)");
+            }
+        }), interval * 20L, interval * 20L);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // Takes a backup and rotates the old ones. Completes with the new file, or null if one was already
+    // running, the backend can't be backed up this way or it failed.
+    public CompletableFuture<File> backup() {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        folder.mkdirs();
+        String name = PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + SUFFIX;
+        File partial = new File(folder, name + PARTIAL_SUFFIX);
+        File file = new File(folder, name);
+
+        return plugin.getDatabase().backupAsync(partial).thenApply(done -> {
+            try {
+                if (done == null || !done) {
+                    if (done != null && task != null) {
+                        // Not a SQLite database, there is nothing to copy on a schedule
+                        plugin.getLogger().info("Scheduled backups only apply to SQLite, back up the database server instead");
+                        task.cancel();
+                    }
+                    partial.delete();
+                    return null;
+                }
+                if (!partial.renameTo(file)) {
+                    partial.delete();
+                    throw new IOException("Could not rename " + partial + " to " + file);
+                }
+                rotate();
+                return file;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    // Deletes backups beyond the number to keep and those past the maximum age, never the newest one
+    private void rotate() {
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null || files.length < 2) {
+            return;
+        }
+        // Names carry the time they were taken, so sorting by name sorts by age
+        Arrays.sort(files, (a, b) -> b.getName().compareTo(a.getName()));
+        int keep = Math.max(1, plugin.getBackupsKept());
+        long maxAge = plugin.getBackupMaxAge();
+        long now = System.currentTimeMillis();
+        List<String> deleted = new ArrayList<>();
+        for (int i = 1; i < files.length; i++) {
+            boolean tooMany = i >= keep;
+            boolean tooOld = maxAge > 0 && now - files[i].lastModified() > maxAge;
+            if ((tooMany || tooOld) && files[i].delete()) {
+                deleted.add(files[i].getName());
+            }
+        }
+        if (!deleted.isEmpty()) {
+            plugin.debug("Deleted old backups: " + String.join(", ", deleted));
+        }
+    }
+}
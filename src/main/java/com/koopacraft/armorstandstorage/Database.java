@@ -1,201 +1,630 @@
 package com.koopacraft.armorstandstorage;
 
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
 import java.io.File;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.sql.*;
-import java.util.Base64;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 public class Database {
-    private Connection connection;
+    // Stands per transaction when importing, saves get their turn in between
+    private static final int IMPORT_BATCH_SIZE = 500;
+
     private final ArmorStandStorage plugin;
+    private final StorageBackend backend;
+    private final InventoryCache cache;
+    private final ItemCodec codec;
+    private final StandRegistry registry = new StandRegistry();
+
+    // All writes go through one thread so they reach the backend in the order they were submitted,
+    // reads use a small pool. Nothing touches JDBC on the tick thread.
+    private final ThreadPoolExecutor writer;
+    private final ThreadPoolExecutor readers;
+    // Export, import and backups run for a long time, they get a thread of their own so loads aren't held up
+    private final ThreadPoolExecutor maintenance;
+    private final Metrics metrics;
+
+    public interface BackendTask<T> {
+        T run(StorageBackend backend) throws Exception;
+    }
 
     public Database(ArmorStandStorage plugin, File file) {
         this.plugin = plugin;
+        this.cache = new InventoryCache(plugin.getCacheSize());
+        this.codec = new ItemCodec(plugin.getCompressionThreshold(), plugin.getInternedItems());
+        int readConnections = Math.max(1, plugin.getReadConnections());
+        this.metrics = plugin.getMetrics();
+        this.writer = newPool(1, "ArmorStandStorage-DB-Writer");
+        this.readers = newPool(readConnections, "ArmorStandStorage-DB-Reader");
+        this.maintenance = newPool(1, "ArmorStandStorage-DB-Maintenance");
+        this.backend = createBackend(file, readConnections + 1);
+
+        write("open", storage -> {
+            storage.open();
+            return null;
+        }, null).join();
+    }
+
+    private StorageBackend createBackend(File file, int poolSize) {
+        ConfigurationSection config = plugin.getConfig().getConfigurationSection("database");
+        String type = config == null ? "sqlite" : config.getString("type", "sqlite");
+        if (type.equalsIgnoreCase("sqlite")) {
+            return new SQLiteBackend(plugin, file, codec);
+        }
+        plugin.getLogger().info("Using " + type + " database");
+        return new PooledJdbcBackend(plugin, config, codec, Math.max(poolSize, config.getInt("pool-size", poolSize)));
+    }
+
+    // Fixed size pool whose queue length can be read for the stats
+    private static ThreadPoolExecutor newPool(int threads, String name) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    public int getWriteQueueSize() {
+        return writer.getQueue().size();
+    }
+
+    public int getReadQueueSize() {
+        return readers.getQueue().size();
+    }
+
+    private <T> CompletableFuture<T> write(String operation, BackendTask<T> task, T fallback) {
+        return submit(writer, "db.write-wait", operation, task, fallback);
+    }
+
+    private <T> CompletableFuture<T> read(String operation, BackendTask<T> task, T fallback) {
+        return submit(readers, "db.read-wait", operation, task, fallback);
+    }
+
+    private <T> CompletableFuture<T> submit(ExecutorService executor, String waitTimer, String operation,
+                                            BackendTask<T> task, T fallback) {
+        long queued = System.nanoTime();
         try {
-            Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
-            
-            // Create tables if they don't exist
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute("CREATE TABLE IF NOT EXISTS armor_stands (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "world TEXT NOT NULL," +
-                        "x DOUBLE NOT NULL," +
-                        "y DOUBLE NOT NULL," +
-                        "z DOUBLE NOT NULL," +
-                        "inventory TEXT," +
-                        "registered_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                        ")");
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                StorageEvents.DatabaseOperation event = new StorageEvents.DatabaseOperation();
+                event.begin();
+                try {
+                    return task.run(backend);
+                } catch (Exception e) {
+                    event.failed = true;
+                    metrics.count("db.errors", 1);
+                    e.printStackTrace();
+                    return fallback;
+                } finally {
+                    metrics.record(waitTimer, start - queued);
+                    metrics.record("db." + operation, System.nanoTime() - start);
+                    if (event.shouldCommit()) {
+                        event.operation = operation;
+                        event.queued = start - queued;
+                        event.commit();
+                    }
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // Already closed, e.g. a late async task during shutdown
+            return CompletableFuture.completedFuture(fallback);
+        }
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public void registerArmorStand(UUID id, Location location) {
+        registerArmorStandAsync(id, location).join();
+    }
+
+    public CompletableFuture<Void> registerArmorStandAsync(UUID id, Location location) {
+        return registerArmorStandsAsync(Collections.singletonList(new StandRecord(id, location, null)));
+    }
+
+    public void registerArmorStands(Collection<StandRecord> stands) {
+        registerArmorStandsAsync(stands).join();
+    }
+
+    // Registers a whole chunk's worth of stands in one transaction
+    public CompletableFuture<Void> registerArmorStandsAsync(Collection<StandRecord> stands) {
+        return write("register", storage -> {
+            storage.registerArmorStands(stands);
+            for (StandRecord stand : stands) {
+                Location location = stand.getLocation();
+                registry.add(location.getWorld().getUID(), StandRegistry.chunkKey(location), stand.getId());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return null;
+        }, null);
+    }
+
+    // Reads which stands the database has in a chunk into the registry
+    public CompletableFuture<Void> loadChunkAsync(World world, long chunk) {
+        UUID worldId = world.getUID();
+        String worldName = world.getName();
+        return read("load-chunk", storage -> {
+            registry.load(worldId, chunk, storage.getArmorStandsInChunk(worldName,
+                    StandRegistry.chunkX(chunk), StandRegistry.chunkZ(chunk)));
+            return null;
+        }, null);
+    }
+
+    public CompletableFuture<Collection<UUID>> getArmorStandsInChunkAsync(String world, int chunkX, int chunkZ) {
+        return read("chunk-stands", storage -> storage.getArmorStandsInChunk(world, chunkX, chunkZ), null);
+    }
+
+    public CompletableFuture<Void> readStoredChunksAsync(StorageBackend.ChunkConsumer consumer) {
+        return read("stored-chunks", storage -> {
+            storage.readStoredChunks(consumer);
+            return null;
+        }, null);
+    }
+
+    // Flags the rows of stands missing from their chunk, see StorageBackend.markOrphans
+    public CompletableFuture<Integer> markOrphansAsync(World world, int chunkX, int chunkZ, Collection<UUID> ids) {
+        long chunk = StandRegistry.chunkKey(chunkX, chunkZ);
+        for (UUID id : ids) {
+            registry.remove(world.getUID(), chunk, id);
         }
+        String worldName = world.getName();
+        return write("mark-orphans", storage -> storage.markOrphans(worldName, chunkX, chunkZ, ids), 0);
     }
 
-    public void registerArmorStand(Location location) {
-        try {
-            String sql = "INSERT OR IGNORE INTO armor_stands (world, x, y, z) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, location.getWorld().getName());
-                pstmt.setDouble(2, location.getX());
-                pstmt.setDouble(3, location.getY());
-                pstmt.setDouble(4, location.getZ());
-                pstmt.executeUpdate();
+    // Deletes up to limit rows flagged before the given time, returns the ids of their stands
+    public CompletableFuture<Collection<UUID>> purgeOrphansAsync(long flaggedBefore, int limit) {
+        return write("purge-orphans", storage -> {
+            Collection<UUID> removed = storage.purgeOrphans(flaggedBefore, limit);
+            for (UUID id : removed) {
+                cache.invalidate(id);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return removed;
+        }, null);
+    }
+
+    public boolean isRegistered(UUID id, Location location) {
+        return isRegisteredAsync(id, location).join();
+    }
+
+    public CompletableFuture<Boolean> isRegisteredAsync(UUID id, Location location) {
+        // Stands in chunks with loaded entities are answered from memory
+        UUID world = location.getWorld().getUID();
+        long chunk = StandRegistry.chunkKey(location);
+        if (registry.isLoaded(world, chunk)) {
+            return CompletableFuture.completedFuture(registry.contains(world, chunk, id));
         }
+        return read("is-registered", storage -> storage.isRegistered(id, location), false);
     }
 
-    public boolean isRegistered(Location location) {
-        try {
-            String sql = "SELECT id FROM armor_stands WHERE world = ? AND x = ? AND y = ? AND z = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, location.getWorld().getName());
-                pstmt.setDouble(2, location.getX());
-                pstmt.setDouble(3, location.getY());
-                pstmt.setDouble(4, location.getZ());
-                
-                ResultSet rs = pstmt.executeQuery();
-                return rs.next();
+    // Returns true if a row was deleted
+    public boolean removeArmorStand(UUID id, Location location) {
+        return removeArmorStandAsync(id, location).join();
+    }
+
+    public CompletableFuture<Boolean> removeArmorStandAsync(UUID id, Location location) {
+        registry.remove(location.getWorld().getUID(), StandRegistry.chunkKey(location), id);
+        return write("remove", storage -> {
+            try {
+                return storage.removeArmorStand(id, location);
+            } finally {
+                cache.invalidate(id);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        }, false);
+    }
+
+    // Deletes the rows of several stands as one writer task
+    public CompletableFuture<Void> removeArmorStandsAsync(Collection<StandRecord> stands) {
+        for (StandRecord stand : stands) {
+            Location location = stand.getLocation();
+            registry.remove(location.getWorld().getUID(), StandRegistry.chunkKey(location), stand.getId());
         }
+        return write("remove-batch", storage -> {
+            for (StandRecord stand : stands) {
+                try {
+                    storage.removeArmorStand(stand.getId(), stand.getLocation());
+                } finally {
+                    cache.invalidate(stand.getId());
+                }
+            }
+            return null;
+        }, null);
+    }
+
+    public void saveArmorStand(UUID id, Location location, ItemStack[] inventory) {
+        saveArmorStandAsync(id, location, inventory).join();
+    }
+
+    public CompletableFuture<Boolean> saveArmorStandAsync(UUID id, Location location, ItemStack[] inventory) {
+        return saveArmorStandsAsync(Collections.singletonList(new StandRecord(id, location, inventory)));
+    }
+
+    public void saveArmorStands(Collection<StandRecord> stands) {
+        saveArmorStandsAsync(stands).join();
+    }
+
+    // Saves several inventories in a single transaction, writing only the slots each record marks as changed.
+    // Completes with false if the transaction failed.
+    public CompletableFuture<Boolean> saveArmorStandsAsync(Collection<StandRecord> stands) {
+        return write("save", storage -> {
+            storeInventories(storage, stands);
+            return true;
+        }, false);
     }
 
-    public void removeArmorStand(Location location) {
+    // Like saveArmorStandsAsync, but a stand that can't be stored doesn't keep the others out: when the
+    // batch fails, each stand is tried again in a transaction of its own. Completes with the ids of the
+    // stands that still failed, or null if nothing could be tried.
+    public CompletableFuture<Set<UUID>> saveEachArmorStandAsync(Collection<StandRecord> stands) {
+        return write("save", storage -> {
+            try {
+                storeInventories(storage, stands);
+                return Collections.<UUID>emptySet();
+            } catch (Exception e) {
+                if (stands.size() == 1) {
+                    plugin.getLogger().log(Level.SEVERE, "Could not save armor stand " + stands.iterator().next().getId(), e);
+                    return Collections.singleton(stands.iterator().next().getId());
+                }
+                plugin.getLogger().log(Level.WARNING, "Could not save " + stands.size() + " armor stands together, saving them one by one", e);
+            }
+            Set<UUID> failed = new HashSet<>();
+            for (StandRecord stand : stands) {
+                try {
+                    storeInventories(storage, Collections.singletonList(stand));
+                } catch (Exception e) {
+                    failed.add(stand.getId());
+                    // The batch's stack trace is above, one line per stand is enough here
+                    plugin.getLogger().severe("Could not save armor stand " + stand.getId() + ": " + e);
+                }
+            }
+            return failed;
+        }, null);
+    }
+
+    // Encodes and stores the stands in one transaction and updates the cache. New items get their search
+    // keys from the background pass started in ArmorStandStorage.
+    private void storeInventories(StorageBackend storage, Collection<StandRecord> stands) throws Exception {
         try {
-            String sql = "DELETE FROM armor_stands WHERE world = ? AND x = ? AND y = ? AND z = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, location.getWorld().getName());
-                pstmt.setDouble(2, location.getX());
-                pstmt.setDouble(3, location.getY());
-                pstmt.setDouble(4, location.getZ());
-                pstmt.executeUpdate();
+            StorageEvents.Serialization event = new StorageEvents.Serialization();
+            event.begin();
+            long start = System.nanoTime();
+            Map<StandRecord, Map<Integer, byte[]>> encoded = new LinkedHashMap<>();
+            int slots = 0;
+            long bytes = 0;
+            for (StandRecord stand : stands) {
+                Map<Integer, byte[]> changes = codec.encodeSlots(stand.getContents(), stand.getChangedSlots());
+                encoded.put(stand, changes);
+                slots += changes.size();
+                for (byte[] item : changes.values()) {
+                    bytes += item == null ? 0 : item.length;
+                }
+            }
+            recordSerialization(event, "encode", start, encoded.size(), slots, bytes);
+
+            storage.saveInventories(encoded);
+            plugin.debug("Saved " + slots + " slots of " + encoded.size() + " inventories (" + bytes + " bytes)");
+
+            // Only publish to the cache once the batch is really stored
+            for (Map.Entry<StandRecord, Map<Integer, byte[]>> entry : encoded.entrySet()) {
+                StandRecord stand = entry.getKey();
+                byte[] contents = cachedContents(stand, entry.getValue());
+                if (contents != null) {
+                    cache.put(stand.getId(), contents);
+                } else {
+                    // Not cached, and a load that is still running must not put an older copy in
+                    cache.invalidate(stand.getId());
+                }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            for (StandRecord stand : stands) {
+                cache.invalidate(stand.getId());
+            }
+            throw e;
         }
     }
 
-    public void saveArmorStand(Location location, ItemStack[] inventory) {
-        try {
-            String serializedInventory = serializeItems(inventory);
-            plugin.debug("Saving inventory: " + serializedInventory);
-            
-            String sql = "UPDATE armor_stands SET inventory = ? WHERE world = ? AND x = ? AND y = ? AND z = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, serializedInventory);
-                pstmt.setString(2, location.getWorld().getName());
-                pstmt.setDouble(3, location.getX());
-                pstmt.setDouble(4, location.getY());
-                pstmt.setDouble(5, location.getZ());
-                int updated = pstmt.executeUpdate();
-                
-                // If no rows were updated, the armor stand might not be registered yet
-                if (updated == 0) {
-                    sql = "INSERT INTO armor_stands (world, x, y, z, inventory) VALUES (?, ?, ?, ?, ?)";
-                    try (PreparedStatement insertStmt = connection.prepareStatement(sql)) {
-                        insertStmt.setString(1, location.getWorld().getName());
-                        insertStmt.setDouble(2, location.getX());
-                        insertStmt.setDouble(3, location.getY());
-                        insertStmt.setDouble(4, location.getZ());
-                        insertStmt.setString(5, serializedInventory);
-                        insertStmt.executeUpdate();
-                    }
-                }
+    // The whole stored inventory after a save, patched into the cached copy where there is one.
+    // Null when only some slots were saved and nothing is cached to patch them into.
+    private byte[] cachedContents(StandRecord stand, Map<Integer, byte[]> changes) {
+        byte[] cached = cache.peek(stand.getId());
+        if (stand.getChangedSlots() == null) {
+            return codec.assemble(changes);
+        }
+        if (cached != null && cached.length > 0) {
+            try {
+                return codec.patch(cached, changes);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+        }
+        if (cached != null) {
+            // Nothing was stored before, so the changed slots are everything
+            return codec.assemble(changes);
+        }
+        return null;
+    }
+
+    public ItemStack[] getArmorStandInventory(UUID id, Location location) {
+        // Shop stands get opened over and over, so try memory before disk
+        byte[] cached = cache.get(id);
+        if (cached == null) {
+            cached = read("load", storage -> loadInventory(storage, id, location), new byte[0]).join();
+        }
+        try {
+            return decode(id, cached, 0, Integer.MAX_VALUE);
         } catch (Exception e) {
             e.printStackTrace();
+            return new ItemStack[27];
         }
     }
 
-    public ItemStack[] getArmorStandInventory(Location location) {
-        try {
-            String sql = "SELECT inventory FROM armor_stands WHERE world = ? AND x = ? AND y = ? AND z = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, location.getWorld().getName());
-                pstmt.setDouble(2, location.getX());
-                pstmt.setDouble(3, location.getY());
-                pstmt.setDouble(4, location.getZ());
-                
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    String inventoryData = rs.getString("inventory");
-                    plugin.debug("Loading inventory: " + inventoryData);
-                    if (inventoryData != null && !inventoryData.isEmpty()) {
-                        return deserializeItems(inventoryData);
-                    }
+    // Looks up and decodes on a database thread. Completes with null when the inventory couldn't be
+    // read or decoded, never with an empty inventory in place of one that exists.
+    public CompletableFuture<ItemStack[]> getArmorStandInventoryAsync(UUID id, Location location) {
+        return getArmorStandInventoryAsync(id, location, 0, Integer.MAX_VALUE);
+    }
+
+    // Like getArmorStandInventoryAsync, decoding only the slots from fromSlot up to toSlot.
+    // The encoded inventory is still read and cached whole, so other pages don't need the database.
+    public CompletableFuture<ItemStack[]> getArmorStandInventoryAsync(UUID id, Location location, int fromSlot, int toSlot) {
+        return read("load", storage -> {
+            byte[] data = cache.get(id);
+            if (data == null) {
+                data = loadInventory(storage, id, location);
+            }
+            return decode(id, data, fromSlot, toSlot);
+        }, null);
+    }
+
+    // Several stands by UUID in one read transaction, stands with nothing stored get empty slots.
+    // Completes with null when they couldn't be read or decoded.
+    public CompletableFuture<Map<UUID, ItemStack[]>> getArmorStandInventoriesAsync(Collection<UUID> ids) {
+        return read("load-batch", storage -> {
+            Map<UUID, byte[]> encoded = new LinkedHashMap<>();
+            List<UUID> missing = new ArrayList<>();
+            for (UUID id : ids) {
+                byte[] data = cache.get(id);
+                if (data == null) {
+                    missing.add(id);
+                } else {
+                    encoded.put(id, data);
                 }
             }
+            if (!missing.isEmpty()) {
+                long invalidations = cache.getInvalidations();
+                Map<UUID, byte[]> loaded = storage.loadInventories(missing);
+                for (UUID id : missing) {
+                    byte[] data = loaded.getOrDefault(id, new byte[0]);
+                    // A save that finished while we were reading is newer than what we just read
+                    cache.putIfAbsent(id, data, invalidations);
+                    encoded.put(id, data);
+                }
+            }
+
+            Map<UUID, ItemStack[]> inventories = new LinkedHashMap<>();
+            for (UUID id : ids) {
+                inventories.put(id, decode(id, encoded.get(id), 0, Integer.MAX_VALUE));
+            }
+            return inventories;
+        }, null);
+    }
+
+    // Stored contents without decoding them, stands with nothing stored are left out
+    public CompletableFuture<Map<UUID, byte[]>> getEncodedInventoriesAsync(Collection<StandRecord> stands) {
+        return read("load-encoded", storage -> {
+            Map<UUID, byte[]> result = new LinkedHashMap<>();
+            for (StandRecord stand : stands) {
+                byte[] data = cache.get(stand.getId());
+                if (data == null) {
+                    data = storage.loadInventory(stand.getId(), stand.getLocation());
+                }
+                if (data != null && data.length > 0) {
+                    result.put(stand.getId(), data);
+                }
+            }
+            return result;
+        }, Collections.emptyMap());
+    }
+
+    public CompletableFuture<Integer> countInventoriesAsync() {
+        return read("count", StorageBackend::countInventories, 0);
+    }
+
+    private byte[] loadInventory(StorageBackend storage, UUID id, Location location) throws Exception {
+        long invalidations = cache.getInvalidations();
+        byte[] data = storage.loadInventory(id, location);
+        plugin.debug("Loading inventory (" + (data == null ? 0 : data.length) + " bytes)");
+        if (data == null) {
+            data = new byte[0];
+        }
+        // A save that finished while we were reading is newer than what we just read
+        cache.putIfAbsent(id, data, invalidations);
+        return data;
+    }
+
+    private ItemStack[] decode(UUID id, byte[] data, int fromSlot, int toSlot) throws Exception {
+        if (data.length == 0) {
+            return new ItemStack[27];
+        }
+        try {
+            StorageEvents.Serialization event = new StorageEvents.Serialization();
+            event.begin();
+            long start = System.nanoTime();
+            ItemStack[] items = codec.decode(data, fromSlot, toSlot);
+            recordSerialization(event, "decode", start, 1, Math.max(0, Math.min(items.length, toSlot) - fromSlot), data.length);
+            return items;
         } catch (Exception e) {
-            e.printStackTrace();
+            // Don't keep serving bytes that can't be decoded
+            cache.invalidate(id);
+            throw e;
         }
-        return new ItemStack[27];
     }
 
-    private String serializeItems(ItemStack[] items) throws Exception {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream);
-        
-        // Count non-null items
-        int nonNullCount = 0;
-        for (ItemStack item : items) {
-            if (item != null) nonNullCount++;
+    // Timer, byte counter and JFR event for one encode or decode
+    void recordSerialization(StorageEvents.Serialization event, String operation, long start,
+                             int inventories, int slots, long bytes) {
+        metrics.record("codec." + operation, System.nanoTime() - start);
+        metrics.count("codec." + operation + "-bytes", bytes);
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.inventories = inventories;
+            event.slots = slots;
+            event.bytes = bytes;
+            event.commit();
         }
-        dataOutput.writeInt(nonNullCount);
-        
-        // Write items with their slot numbers
-        for (int i = 0; i < items.length; i++) {
-            if (items[i] != null) {
-                dataOutput.writeInt(i); // Write the slot number
-                dataOutput.writeObject(items[i]);
+    }
+
+    // Deletes stored items that no slot refers to anymore, returns how many were deleted
+    public CompletableFuture<Integer> collectItemsAsync() {
+        return write("collect-items", StorageBackend::collectItems, 0);
+    }
+
+    // Gives up to limit stored items their search keys, returns how many were indexed
+    public CompletableFuture<Integer> indexItemsAsync(int limit) {
+        return write("index-items", storage -> storage.indexItems(limit), 0);
+    }
+
+    // Stands holding items with the search key from ItemIndex, null if the search failed
+    public CompletableFuture<List<ItemMatch>> findItemsAsync(String key, int offset, int limit) {
+        return read("find-items", storage -> storage.findItems(key, offset, limit), null);
+    }
+
+    // Converts up to batchSize Base64 rows to the binary format, returns how many rows were looked at
+    public int migrateLegacyInventories(int batchSize) {
+        return migrateLegacyInventoriesAsync(batchSize).join();
+    }
+
+    public CompletableFuture<Integer> migrateLegacyInventoriesAsync(int batchSize) {
+        return write("migrate-legacy", storage -> storage.migrateLegacyInventories(batchSize), 0);
+    }
+
+    // Size and speed of the old format against the new one, null if nothing was converted
+    public String getLegacyMigrationSummary() {
+        return getLegacyMigrationSummaryAsync().join();
+    }
+
+    public CompletableFuture<String> getLegacyMigrationSummaryAsync() {
+        return write("legacy-summary", StorageBackend::getLegacyMigrationSummary, null);
+    }
+
+    // Writes every stored stand to an archive, returns how many or null if it failed. Starts once
+    // every write submitted before it has committed, and reads while saves carry on.
+    public CompletableFuture<Integer> exportAsync(File file) {
+        return write("export-wait", storage -> null, null).thenCompose(ignored ->
+                submit(maintenance, "db.maintenance-wait", "export", storage -> {
+                    try (StorageArchive.Writer out = new StorageArchive.Writer(file)) {
+                        return storage.exportInventories(out);
+                    } catch (Exception e) {
+                        // Don't leave an archive behind that looks complete
+                        file.delete();
+                        throw e;
+                    }
+                }, null));
+    }
+
+    // Stores every stand from an archive, replacing what was stored for them. Returns how many or
+    // null if it failed, batches stored before the failure stay.
+    public CompletableFuture<Integer> importAsync(File file) {
+        return submit(maintenance, "db.maintenance-wait", "import", storage -> {
+            int imported = 0;
+            try (StorageArchive.Reader in = new StorageArchive.Reader(file)) {
+                List<StorageArchive.Entry> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+                StorageArchive.Entry entry;
+                while ((entry = in.next()) != null) {
+                    batch.add(entry);
+                    if (batch.size() == IMPORT_BATCH_SIZE) {
+                        imported += importBatch(batch, imported);
+                        batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+                    }
+                }
+                imported += importBatch(batch, imported);
             }
-        }
-        
-        dataOutput.close();
-        return Base64.getEncoder().encodeToString(outputStream.toByteArray());
+            return imported;
+        }, null);
     }
 
-    private ItemStack[] deserializeItems(String data) throws Exception {
-        if (data == null || data.isEmpty()) {
-            return new ItemStack[27]; // Return empty array with correct size
+    // Stores one batch through the writer and waits for it, so only one batch is held in memory
+    private int importBatch(List<StorageArchive.Entry> batch, int imported) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
         }
-        
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64.getDecoder().decode(data));
-        BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream);
-        
-        int size = dataInput.readInt();
-        ItemStack[] items = new ItemStack[27]; // Fixed size for chest inventory
-        
-        // Read items into their exact positions
-        for (int i = 0; i < size; i++) {
-            int slot = dataInput.readInt(); // Read the slot number
-            ItemStack item = (ItemStack) dataInput.readObject();
-            if (slot >= 0 && slot < items.length) {
-                items[slot] = item;
+        List<UUID> ids = new ArrayList<>(batch.size());
+        for (StorageArchive.Entry entry : batch) {
+            if (entry.getId() != null) {
+                ids.add(entry.getId());
             }
         }
-        
-        dataInput.close();
-        return items;
+        // Open storages and queued saves of these stands would write the old contents back later
+        plugin.releaseStands(ids);
+        boolean stored = write("import-batch", storage -> {
+            storage.importInventories(batch);
+            for (UUID id : ids) {
+                cache.invalidate(id);
+            }
+            return true;
+        }, false).join();
+        if (!stored) {
+            throw new IOException("Import stopped after " + imported + " stands");
+        }
+        return batch.size();
+    }
+
+    // Copies the database to the file, returns false if the backend can't be copied and null if it failed.
+    // Starts once every write submitted before it has committed, and runs while saves carry on.
+    public CompletableFuture<Boolean> backupAsync(File file) {
+        return write("backup-wait", storage -> null, null).thenCompose(ignored ->
+                submit(maintenance, "db.maintenance-wait", "backup", storage -> storage.backup(file), null));
+    }
+
+    // Drops rows that can't be read anymore and gives free space back, returns a summary or null if it failed
+    public CompletableFuture<String> compactAsync() {
+        return write("compact", StorageBackend::compact, null);
+    }
+
+    public StandRegistry getRegistry() {
+        return registry;
+    }
+
+    public InventoryCache getCache() {
+        return cache;
+    }
+
+    public ItemCodec getCodec() {
+        return codec;
     }
 
     public void close() {
+        // Let queued work finish before the connections go away
+        writer.shutdown();
+        readers.shutdown();
+        maintenance.shutdownNow();
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+            readers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        backend.close();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,88 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.World;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+// StorageService on top of the database store. Loads see changes that are still queued, saves go
+// through the save queue so they are merged with those and reach the database in order.
+public class DatabaseStorageService implements StorageService {
+    private final ArmorStandStorage plugin;
+
+    public DatabaseStorageService(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+    }
+
+    // Looked up on every call, /asstorage migrate switches stores while the server runs
+    private DatabaseStore getStore() {
+        InventoryStore store = plugin.getInventoryStore();
+        if (!(store instanceof DatabaseStore)) {
+            throw new IllegalStateException("Inventories are stored on the armor stands (storage.mode: entity)");
+        }
+        return (DatabaseStore) store;
+    }
+
+    @Override
+    public CompletableFuture<ItemStack[]> load(UUID id) {
+        return loadAll(Collections.singletonList(id)).thenApply(inventories -> inventories.get(id));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, ItemStack[]>> loadAll(Collection<UUID> ids) {
+        try {
+            return getStore().loadAll(ids);
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> save(StandRecord stand) {
+        return saveAll(Collections.singletonList(stand));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<StandRecord> stands) {
+        for (StandRecord stand : stands) {
+            if (stand.getContents() == null || stand.getLocation() == null || stand.getLocation().getWorld() == null) {
+                return failed(new IllegalArgumentException("Armor stand " + stand.getId() + " needs contents and a location with a world"));
+            }
+        }
+        try {
+            return getStore().saveAll(stands).thenAccept(stored -> {
+                if (!stored) {
+                    throw new CompletionException(new IOException("Couldn't save the inventories of " + stands.size() + " armor stands"));
+                }
+            });
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> streamStandsInChunk(World world, int chunkX, int chunkZ, BiConsumer<UUID, ItemStack[]> consumer) {
+        return plugin.getDatabase().getArmorStandsInChunkAsync(world.getName(), chunkX, chunkZ).thenCompose(ids -> {
+            if (ids == null) {
+                throw new CompletionException(new IOException("Couldn't read the armor stands in chunk " + chunkX + ", " + chunkZ));
+            }
+            return loadAll(ids);
+        }).thenApply(inventories -> {
+            inventories.forEach(consumer);
+            return inventories.size();
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
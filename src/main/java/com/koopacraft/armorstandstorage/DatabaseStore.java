@@ -0,0 +1,203 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Inventories in the database, written behind through the save queue
+public class DatabaseStore implements InventoryStore {
+    private final ArmorStandStorage plugin;
+    private final SaveQueue saveQueue;
+    private final OrphanSweeper sweeper;
+
+    public DatabaseStore(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+        this.saveQueue = new SaveQueue(plugin);
+        saveQueue.start(plugin.getSaveInterval());
+        this.sweeper = new OrphanSweeper(plugin);
+        sweeper.start();
+    }
+
+    // Registers stands the registry doesn't know, one batch per chunk, off the main thread.
+    // The first time a chunk shows up its rows are read first so only new stands cost a write.
+    @Override
+    public void standsLoaded(Collection<? extends Entity> entities) {
+        StandRegistry registry = plugin.getDatabase().getRegistry();
+        Location location = new Location(null, 0, 0, 0);
+        Map<UUID, LongObjectMap<List<StandRecord>>> unknown = new HashMap<>();
+        for (Entity entity : entities) {
+            if (!(entity instanceof ArmorStand)) {
+                continue;
+            }
+            entity.getLocation(location);
+            UUID world = entity.getWorld().getUID();
+            long chunk = StandRegistry.chunkKey(location);
+            if (!registry.contains(world, chunk, entity.getUniqueId())) {
+                unknown.computeIfAbsent(world, key -> new LongObjectMap<>())
+                        .computeIfAbsent(chunk, key -> new ArrayList<>())
+                        .add(new StandRecord(entity.getUniqueId(), location.clone(), null));
+            }
+        }
+
+        for (Map.Entry<UUID, LongObjectMap<List<StandRecord>>> entry : unknown.entrySet()) {
+            UUID world = entry.getKey();
+            entry.getValue().forEach((chunk, stands) -> {
+                if (registry.track(world, chunk)) {
+                    plugin.getDatabase().loadChunkAsync(stands.get(0).getLocation().getWorld(), chunk)
+                            .thenRun(() -> register(world, chunk, stands));
+                } else {
+                    register(world, chunk, stands);
+                }
+            });
+        }
+    }
+
+    private void register(UUID world, long chunk, List<StandRecord> stands) {
+        StandRegistry registry = plugin.getDatabase().getRegistry();
+        List<StandRecord> batch = new ArrayList<>();
+        for (StandRecord stand : stands) {
+            if (!registry.contains(world, chunk, stand.getId())) {
+                batch.add(stand);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        plugin.getDatabase().registerArmorStandsAsync(batch).thenRun(() ->
+                plugin.debug("Registered " + batch.size() + " armor stands from a loaded chunk"));
+    }
+
+    @Override
+    public void chunkLoaded(Chunk chunk) {
+        sweeper.chunkLoaded(chunk);
+    }
+
+    @Override
+    public void chunkUnloaded(Chunk chunk) {
+        plugin.getDatabase().getRegistry().untrack(chunk.getWorld().getUID(),
+                StandRegistry.chunkKey(chunk.getX(), chunk.getZ()));
+    }
+
+    @Override
+    public CompletableFuture<ItemStack[]> load(ArmorStand armorStand, int fromSlot, int toSlot) {
+        UUID id = armorStand.getUniqueId();
+        // Queued changes are newer than the database
+        StandRecord pending = saveQueue.getPending(id);
+        if (pending != null && pending.getChangedSlots() == null) {
+            return CompletableFuture.completedFuture(pending.getContents());
+        }
+
+        return plugin.getDatabase().getArmorStandInventoryAsync(id, armorStand.getLocation(), fromSlot, toSlot).thenApply(items -> {
+            if (items == null) {
+                throw new CompletionException(new IOException("Couldn't load the inventory of armor stand " + id));
+            }
+            // Changes queued before the read started and while it ran, the database may have neither
+            items = overlay(items, pending, fromSlot, toSlot);
+            return overlay(items, saveQueue.getPending(id), fromSlot, toSlot);
+        });
+    }
+
+    // Newest contents of several stands by UUID, read in one transaction. Completes exceptionally
+    // when they couldn't be read.
+    public CompletableFuture<Map<UUID, ItemStack[]>> loadAll(Collection<UUID> ids) {
+        Map<UUID, StandRecord> pending = new HashMap<>();
+        for (UUID id : ids) {
+            StandRecord save = saveQueue.getPending(id);
+            if (save != null) {
+                pending.put(id, save);
+            }
+        }
+
+        return plugin.getDatabase().getArmorStandInventoriesAsync(ids).thenApply(inventories -> {
+            if (inventories == null) {
+                throw new CompletionException(new IOException("Couldn't load the inventories of " + ids.size() + " armor stands"));
+            }
+            for (Map.Entry<UUID, ItemStack[]> entry : inventories.entrySet()) {
+                UUID id = entry.getKey();
+                ItemStack[] items = overlay(entry.getValue(), pending.get(id), 0, Integer.MAX_VALUE);
+                entry.setValue(overlay(items, saveQueue.getPending(id), 0, Integer.MAX_VALUE));
+            }
+            return inventories;
+        });
+    }
+
+    private static ItemStack[] overlay(ItemStack[] items, StandRecord pending, int fromSlot, int toSlot) {
+        if (pending == null) {
+            return items;
+        }
+        if (pending.getChangedSlots() == null) {
+            return pending.getContents();
+        }
+        BitSet changed = pending.getChangedSlots();
+        items = Arrays.copyOf(items, Math.max(items.length, changed.length()));
+        for (int i = changed.nextSetBit(fromSlot); i >= 0 && i < toSlot; i = changed.nextSetBit(i + 1)) {
+            items[i] = i < pending.getContents().length ? pending.getContents()[i] : null;
+        }
+        return items;
+    }
+
+    @Override
+    public void queueSave(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        saveQueue.queueSave(armorStand, contents, changedSlots);
+    }
+
+    @Override
+    public void saveNow(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        saveQueue.saveNow(armorStand, contents, changedSlots);
+    }
+
+    // Writes several stands right away in one transaction, see SaveQueue.saveAll
+    public CompletableFuture<Boolean> saveAll(Collection<StandRecord> stands) {
+        return saveQueue.saveAll(stands);
+    }
+
+    @Override
+    public void remove(ArmorStand armorStand) {
+        UUID id = armorStand.getUniqueId();
+        // Drop queued saves first so they can't bring the row back
+        saveQueue.discard(id);
+        String location = ArmorStandListener.formatLocation(armorStand.getLocation());
+        plugin.getDatabase().removeArmorStandAsync(id, armorStand.getLocation()).thenAccept(removed -> {
+            if (removed) {
+                plugin.getLogger().info("Registered armor stand removed at: " + location);
+            } else {
+                plugin.getLogger().info("Unregistered armor stand removed at: " + location);
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        sweeper.stop();
+        saveQueue.shutdown();
+    }
+
+    // Completes once everything that was queued is stored
+    public CompletableFuture<Void> shutdownAsync() {
+        sweeper.stop();
+        return saveQueue.shutdownAsync();
+    }
+
+    public SaveQueue getSaveQueue() {
+        return saveQueue;
+    }
+
+    public OrphanSweeper getSweeper() {
+        return sweeper;
+    }
+}
@@ -0,0 +1,276 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Inventories in each stand's PersistentDataContainer, so they are saved with the chunk and
+// loading or saving them needs no database at all. While migrating, rows still in the database
+// are moved onto their stands as the chunks holding them load.
+public class EntityStore implements InventoryStore {
+    private final ArmorStandStorage plugin;
+    private final NamespacedKey key;
+    // Slots saved onto a stand whose database row hasn't been moved over yet, those win over the row
+    private final NamespacedKey unmergedKey;
+    private volatile boolean migrating;
+    private final AtomicInteger migrated = new AtomicInteger();
+    // Database reads and deletes wait for this, so saves still on their way to the database aren't missed
+    private volatile CompletableFuture<Void> rowsReady = CompletableFuture.completedFuture(null);
+
+    public EntityStore(ArmorStandStorage plugin, boolean migrating) {
+        this.plugin = plugin;
+        this.key = new NamespacedKey(plugin, "contents");
+        this.unmergedKey = new NamespacedKey(plugin, "unmerged-slots");
+        this.migrating = migrating;
+    }
+
+    @Override
+    public void standsLoaded(Collection<? extends Entity> entities) {
+        if (!migrating) {
+            return;
+        }
+
+        List<StandRecord> batch = new ArrayList<>();
+        Map<UUID, ArmorStand> stands = new HashMap<>();
+        for (Entity entity : entities) {
+            if (entity instanceof ArmorStand && needsRow((ArmorStand) entity)) {
+                batch.add(new StandRecord(entity.getUniqueId(), entity.getLocation(), null));
+                stands.put(entity.getUniqueId(), (ArmorStand) entity);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // The stands all come from one chunk, so one region owns them
+        Location location = batch.get(0).getLocation();
+        rowsReady.thenCompose(ignored -> plugin.getDatabase().getEncodedInventoriesAsync(batch)).thenAccept(found ->
+                plugin.getScheduler().runAtLocation(location, () -> moveRows(stands.values(), found)));
+    }
+
+    // Whether the stand's contents may still be partly or wholly in the database
+    private boolean needsRow(ArmorStand armorStand) {
+        PersistentDataContainer container = armorStand.getPersistentDataContainer();
+        return !container.has(key, PersistentDataType.BYTE_ARRAY) || container.has(unmergedKey, PersistentDataType.BYTE_ARRAY);
+    }
+
+    // Puts the fetched rows onto their stands and deletes them from the database. Runs on the thread owning the stands.
+    private void moveRows(Collection<ArmorStand> stands, Map<UUID, byte[]> found) {
+        List<StandRecord> moved = new ArrayList<>();
+        for (ArmorStand armorStand : stands) {
+            byte[] row = found.get(armorStand.getUniqueId());
+            if (row == null) {
+                // Nothing in the database, whatever the stand holds is everything
+                if (armorStand.isValid()) {
+                    armorStand.getPersistentDataContainer().remove(unmergedKey);
+                }
+                continue;
+            }
+            if (armorStand.isValid() && moveOnto(armorStand, row)) {
+                moved.add(new StandRecord(armorStand.getUniqueId(), armorStand.getLocation(), null));
+            }
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        migrated.addAndGet(moved.size());
+        plugin.debug("Moved " + moved.size() + " inventories from the database onto their armor stands");
+        Database database = plugin.getDatabase();
+        database.removeArmorStandsAsync(moved)
+                .thenCompose(ignored -> database.countInventoriesAsync())
+                .thenAccept(this::checkFinished);
+    }
+
+    // Stores a database row on the stand, keeping slots that were saved to the stand since. Returns
+    // false if the row couldn't be merged and has to stay in the database.
+    private boolean moveOnto(ArmorStand armorStand, byte[] row) {
+        PersistentDataContainer container = armorStand.getPersistentDataContainer();
+        byte[] stored = container.get(key, PersistentDataType.BYTE_ARRAY);
+        byte[] unmerged = container.get(unmergedKey, PersistentDataType.BYTE_ARRAY);
+        if (stored != null) {
+            if (unmerged == null) {
+                // Saved whole since, the row is out of date
+                return true;
+            }
+            try {
+                BitSet partial = BitSet.valueOf(unmerged);
+                ItemCodec codec = plugin.getDatabase().getCodec();
+                Map<Integer, byte[]> slots = codec.split(stored);
+                Map<Integer, byte[]> changes = new TreeMap<>();
+                for (int i = partial.nextSetBit(0); i >= 0; i = partial.nextSetBit(i + 1)) {
+                    changes.put(i, slots.get(i));
+                }
+                row = codec.patch(row, changes);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        container.set(key, PersistentDataType.BYTE_ARRAY, row);
+        container.remove(unmergedKey);
+        return true;
+    }
+
+    @Override
+    public void chunkLoaded(Chunk chunk) {
+    }
+
+    @Override
+    public void chunkUnloaded(Chunk chunk) {
+    }
+
+    private void checkFinished(int remaining) {
+        if (remaining > 0) {
+            return;
+        }
+        plugin.getScheduler().runGlobal(() -> {
+            if (!migrating) {
+                return;
+            }
+            migrating = false;
+            plugin.getConfig().set("storage.migrate-from-database", false);
+            plugin.saveConfig();
+            plugin.getLogger().info("Finished moving inventories onto armor stands (" + migrated.get() + " this session)");
+        });
+    }
+
+    // Starts moving database rows onto stands, beginning with chunks that are already loaded
+    public void startMigration() {
+        startMigration(CompletableFuture.completedFuture(null));
+    }
+
+    // Same, but rows are only read once rowsReady completes. Saves made until then go onto the
+    // stands and are marked unmerged as usual.
+    public void startMigration(CompletableFuture<Void> rowsReady) {
+        this.rowsReady = rowsReady;
+        migrating = true;
+        plugin.getScheduler().forEachLoadedChunk(chunk -> standsLoaded(Arrays.asList(chunk.getEntities())));
+    }
+
+    public boolean isMigrating() {
+        return migrating;
+    }
+
+    public int getMigrated() {
+        return migrated.get();
+    }
+
+    @Override
+    public CompletableFuture<ItemStack[]> load(ArmorStand armorStand, int fromSlot, int toSlot) {
+        if (migrating && needsRow(armorStand)) {
+            // Opened before its chunk's row was moved over, move this one now
+            StandRecord stand = new StandRecord(armorStand.getUniqueId(), armorStand.getLocation(), null);
+            CompletableFuture<ItemStack[]> result = new CompletableFuture<>();
+            CompletableFuture<Map<UUID, byte[]>> read = rowsReady.thenCompose(ignored ->
+                    plugin.getDatabase().getEncodedInventoriesAsync(Collections.singletonList(stand)));
+            read.whenComplete((found, error) ->
+                    plugin.getScheduler().runForEntity(armorStand, () -> {
+                        try {
+                            if (error != null) {
+                                throw error;
+                            }
+                            moveRows(Collections.singletonList(armorStand), found);
+                            result.complete(decode(armorStand, fromSlot, toSlot));
+                        } catch (Throwable t) {
+                            result.completeExceptionally(t);
+                        }
+                    }, () -> result.completeExceptionally(new IllegalStateException("Armor stand was removed"))));
+            return result;
+        }
+
+        try {
+            return CompletableFuture.completedFuture(decode(armorStand, fromSlot, toSlot));
+        } catch (Exception e) {
+            CompletableFuture<ItemStack[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private ItemStack[] decode(ArmorStand armorStand, int fromSlot, int toSlot) throws Exception {
+        byte[] data = armorStand.getPersistentDataContainer().get(key, PersistentDataType.BYTE_ARRAY);
+        if (data == null) {
+            return new ItemStack[0];
+        }
+        StorageEvents.Serialization event = new StorageEvents.Serialization();
+        event.begin();
+        long start = System.nanoTime();
+        ItemStack[] items = plugin.getDatabase().getCodec().decode(data, fromSlot, toSlot);
+        plugin.getDatabase().recordSerialization(event, "decode", start, 1,
+                Math.max(0, Math.min(items.length, toSlot) - fromSlot), data.length);
+        return items;
+    }
+
+    @Override
+    public void queueSave(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        // Setting the tag only marks the chunk dirty, the server writes it with its own saves
+        saveNow(armorStand, contents, changedSlots);
+    }
+
+    @Override
+    public void saveNow(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        ItemCodec codec = plugin.getDatabase().getCodec();
+        PersistentDataContainer container = armorStand.getPersistentDataContainer();
+        byte[] stored = container.get(key, PersistentDataType.BYTE_ARRAY);
+        if (migrating && changedSlots != null && needsRow(armorStand)) {
+            // The rest of the inventory may still be in the database, remember which slots
+            // are newer so they win when the row is moved over
+            byte[] unmerged = container.get(unmergedKey, PersistentDataType.BYTE_ARRAY);
+            BitSet slots = unmerged == null ? new BitSet() : BitSet.valueOf(unmerged);
+            slots.or(changedSlots);
+            container.set(unmergedKey, PersistentDataType.BYTE_ARRAY, slots.toByteArray());
+        } else if (changedSlots == null) {
+            container.remove(unmergedKey);
+        }
+        StorageEvents.Serialization event = new StorageEvents.Serialization();
+        event.begin();
+        long start = System.nanoTime();
+        byte[] data;
+        if (changedSlots == null || stored == null) {
+            data = codec.encode(contents);
+        } else {
+            // The tag holds the whole inventory, patch only the slots that changed into it
+            try {
+                data = codec.patch(stored, codec.encodeSlots(contents, changedSlots));
+            } catch (Exception e) {
+                e.printStackTrace();
+                data = codec.encode(contents);
+            }
+        }
+        plugin.getDatabase().recordSerialization(event, "encode", start, 1,
+                changedSlots == null ? contents.length : changedSlots.cardinality(), data.length);
+        container.set(key, PersistentDataType.BYTE_ARRAY, data);
+    }
+
+    @Override
+    public void remove(ArmorStand armorStand) {
+        // The contents go away with the entity, only a row that was never moved needs deleting
+        if (migrating) {
+            UUID id = armorStand.getUniqueId();
+            Location location = armorStand.getLocation();
+            rowsReady.thenRun(() -> plugin.getDatabase().removeArmorStandAsync(id, location));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
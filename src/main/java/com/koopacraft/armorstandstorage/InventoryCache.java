@@ -0,0 +1,144 @@
+package com.koopacraft.armorstandstorage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class InventoryCache {
+    // Rough per-entry cost of the map node, UUID key and array header
+    private static final long ENTRY_OVERHEAD = 128L;
+    // Invalidated stands remembered for putIfAbsent, far more than loads that can be in flight at once
+    private static final int MAX_INVALIDATED = 4096;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<UUID, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    // When each recently invalidated stand was last invalidated, oldest first, so a save only keeps
+    // loads of its own stand out of the cache
+    private final LinkedHashMap<UUID, Long> invalidated = new LinkedHashMap<>();
+    // Newest invalidation dropped from invalidated, loads that started before it can't be checked per stand
+    private long forgotten;
+
+    public InventoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the serialized inventory, an empty array for a stand with nothing stored, or null when not cached
+    public synchronized byte[] get(UUID key) {
+        byte[] data = entries.get(key);
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    // Like get, but saves looking at the entry don't count towards the hit rate
+    public synchronized byte[] peek(UUID key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(UUID key, byte[] data) {
+        if (data == null) {
+            data = new byte[0];
+        }
+        long size = sizeOf(key, data);
+        byte[] previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= sizeOf(key, previous);
+        }
+        // Entries bigger than the whole budget would only push everything else out
+        if (size > maxBytes) {
+            return;
+        }
+
+        entries.put(key, data);
+        usedBytes += size;
+
+        Iterator<Map.Entry<UUID, byte[]>> iterator = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<UUID, byte[]> eldest = iterator.next();
+            usedBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    // Used by loads so they never replace contents a concurrent save already published,
+    // and never bring back contents a save dropped for the same stand after the load had started
+    public synchronized void putIfAbsent(UUID key, byte[] data, long since) {
+        if (entries.containsKey(key) || since < forgotten) {
+            return;
+        }
+        Long invalidatedAt = invalidated.get(key);
+        if (invalidatedAt == null || invalidatedAt <= since) {
+            put(key, data);
+        }
+    }
+
+    // Take this before loading, for putIfAbsent
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized void invalidate(UUID key) {
+        invalidations++;
+        // Moved to the end, the map stays ordered by last invalidation
+        invalidated.remove(key);
+        invalidated.put(key, invalidations);
+        if (invalidated.size() > MAX_INVALIDATED) {
+            Iterator<Map.Entry<UUID, Long>> oldest = invalidated.entrySet().iterator();
+            forgotten = oldest.next().getValue();
+            oldest.remove();
+        }
+        byte[] previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= sizeOf(key, previous);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private static long sizeOf(UUID key, byte[] data) {
+        return ENTRY_OVERHEAD + data.length;
+    }
+}
@@ -0,0 +1,45 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Chunk;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+// Where the listener keeps stand inventories, selected with storage.mode. Methods are called on the thread
+// that owns the stand or chunk in question, which is the main thread unless running on Folia.
+public interface InventoryStore {
+    // Stands from a chunk that just loaded, or a stand that was just placed
+    void standsLoaded(Collection<? extends Entity> entities);
+
+    // The entities of a chunk were loaded, after standsLoaded was called with them
+    void chunkLoaded(Chunk chunk);
+
+    // The entities of a chunk were unloaded
+    void chunkUnloaded(Chunk chunk);
+
+    // Newest stored contents, an empty array when nothing is stored. May complete on another thread,
+    // and completes exceptionally when the contents couldn't be read.
+    default CompletableFuture<ItemStack[]> load(ArmorStand armorStand) {
+        return load(armorStand, 0, Integer.MAX_VALUE);
+    }
+
+    // Like load, with only the slots from fromSlot up to toSlot filled in. Slots keep their index,
+    // so the array is indexed the same as the whole storage.
+    CompletableFuture<ItemStack[]> load(ArmorStand armorStand, int fromSlot, int toSlot);
+
+    // Stores the changed slots at some point soon, null changedSlots means every slot.
+    // Slots that are not marked as changed keep whatever is stored.
+    void queueSave(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots);
+
+    // Stores the changed slots without waiting for the next batch
+    void saveNow(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots);
+
+    void remove(ArmorStand armorStand);
+
+    // Writes out anything still pending
+    void shutdown();
+}
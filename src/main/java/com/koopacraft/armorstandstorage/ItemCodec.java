@@ -0,0 +1,299 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Binary inventory format:
+//   byte    format version
+//   byte    flags (FLAG_COMPRESSED: everything after the header is deflated)
+//   varint  slot count
+//   bytes   slot bitmap, one bit per slot, set when the slot holds an item
+//   per set slot: varint length + ItemStack.serializeAsBytes()
+public class ItemCodec {
+    public static final byte FORMAT_VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE = 2;
+    // Inventories rebuilt from separate slots are never smaller than a single chest
+    private static final int MIN_SLOTS = 27;
+    // No storage can be bigger, a larger slot count means the data is corrupt
+    private static final int MAX_SLOTS = ArmorStandStorage.MAX_CAPACITY;
+    // Bytes of SHA-256 kept as the content address of a stored item
+    public static final int HASH_LENGTH = 16;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int compressionThreshold;
+    private final ItemInterner interner;
+
+    // Payloads at or above the threshold (in bytes) are compressed, 0 or less disables compression
+    public ItemCodec(int compressionThreshold) {
+        this(compressionThreshold, 0);
+    }
+
+    // Up to internedItems decoded items are kept and cloned instead of deserialized again
+    public ItemCodec(int compressionThreshold, int internedItems) {
+        this.compressionThreshold = compressionThreshold;
+        this.interner = new ItemInterner(internedItems);
+    }
+
+    // Content address of a single serialized item from encodeSlots. Identical items get the same hash,
+    // so backends can store each distinct item once and have slots refer to it.
+    public static byte[] hash(byte[] item) {
+        return Arrays.copyOf(DIGEST.get().digest(item), HASH_LENGTH);
+    }
+
+    public byte[] encode(ItemStack[] items) {
+        return assemble(items.length, encodeSlots(items, null));
+    }
+
+    // Serialized items of the given slots (every slot when null), empty slots map to null.
+    // Backends that store slots separately keep these as they are.
+    public Map<Integer, byte[]> encodeSlots(ItemStack[] items, BitSet slots) {
+        Map<Integer, byte[]> encoded = new TreeMap<>();
+        if (slots == null) {
+            for (int i = 0; i < items.length; i++) {
+                encoded.put(i, isEmpty(items[i]) ? null : items[i].serializeAsBytes());
+            }
+        } else {
+            for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+                ItemStack item = i < items.length ? items[i] : null;
+                encoded.put(i, isEmpty(item) ? null : item.serializeAsBytes());
+            }
+        }
+        return encoded;
+    }
+
+    // Builds a whole inventory from separately stored slots, at least a single chest in size
+    public byte[] assemble(Map<Integer, byte[]> items) {
+        int slots = MIN_SLOTS;
+        for (int slot : items.keySet()) {
+            slots = Math.max(slots, slot + 1);
+        }
+        return assemble(slots, items);
+    }
+
+    private byte[] assemble(int slots, Map<Integer, byte[]> items) {
+        byte[] bitmap = new byte[(slots + 7) / 8];
+        byte[][] serialized = new byte[slots][];
+        for (Map.Entry<Integer, byte[]> entry : items.entrySet()) {
+            int slot = entry.getKey();
+            if (entry.getValue() != null && slot >= 0 && slot < slots) {
+                serialized[slot] = entry.getValue();
+                bitmap[slot >> 3] |= (byte) (1 << (slot & 7));
+            }
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + slots * 32);
+        writeVarInt(payload, slots);
+        payload.write(bitmap, 0, bitmap.length);
+        for (byte[] item : serialized) {
+            if (item != null) {
+                writeVarInt(payload, item.length);
+                payload.write(item, 0, item.length);
+            }
+        }
+
+        byte[] body = payload.toByteArray();
+        int flags = 0;
+        if (compressionThreshold > 0 && body.length >= compressionThreshold) {
+            byte[] compressed = deflate(body);
+            // Small or already dense payloads can grow when deflated
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        byte[] data = new byte[HEADER_SIZE + body.length];
+        data[0] = FORMAT_VERSION;
+        data[1] = (byte) flags;
+        System.arraycopy(body, 0, data, HEADER_SIZE, body.length);
+        return data;
+    }
+
+    // The serialized item of every occupied slot, without deserializing any of them
+    public Map<Integer, byte[]> split(byte[] data) throws IOException {
+        byte[] body = body(data);
+        int[] position = {bodyStart(data)};
+        int slots = readSlotCount(body, position);
+
+        Map<Integer, byte[]> items = new TreeMap<>();
+        readSlots(body, position, slots, items::put);
+        return items;
+    }
+
+    // Applies changed slots (null clears a slot) to a whole inventory without deserializing any items
+    public byte[] patch(byte[] data, Map<Integer, byte[]> changes) throws IOException {
+        byte[] body = body(data);
+        int[] position = {bodyStart(data)};
+        int slots = readSlotCount(body, position);
+
+        Map<Integer, byte[]> items = new TreeMap<>();
+        readSlots(body, position, slots, items::put);
+        for (Map.Entry<Integer, byte[]> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                items.remove(change.getKey());
+            } else {
+                items.put(change.getKey(), change.getValue());
+            }
+            slots = Math.max(slots, change.getKey() + 1);
+        }
+        return assemble(Math.max(MIN_SLOTS, slots), items);
+    }
+
+    public ItemStack[] decode(byte[] data) throws IOException {
+        return decode(data, 0, Integer.MAX_VALUE);
+    }
+
+    // Deserializes only the slots from fromSlot up to toSlot, the others are left empty. Opening one
+    // page of a large storage costs that page's items, whatever the rest holds.
+    public ItemStack[] decode(byte[] data, int fromSlot, int toSlot) throws IOException {
+        byte[] body = body(data);
+        int[] position = {bodyStart(data)};
+        int slots = readSlotCount(body, position);
+
+        ItemStack[] items = new ItemStack[slots];
+        readSlots(body, position, slots, (slot, item) -> {
+            if (slot >= fromSlot && slot < toSlot) {
+                items[slot] = interner.get(item);
+            }
+        });
+        return items;
+    }
+
+    public ItemInterner getInterner() {
+        return interner;
+    }
+
+    private interface SlotReader {
+        void accept(int slot, byte[] item);
+    }
+
+    private static void readSlots(byte[] body, int[] position, int slots, SlotReader reader) throws IOException {
+        int bitmapStart = position[0];
+        position[0] += (slots + 7) / 8;
+        if (position[0] > body.length) {
+            throw new IOException("Inventory data is truncated");
+        }
+
+        for (int i = 0; i < slots; i++) {
+            if ((body[bitmapStart + (i >> 3)] & (1 << (i & 7))) == 0) {
+                continue;
+            }
+            int length = readVarInt(body, position);
+            if (length < 0 || length > body.length - position[0]) {
+                throw new IOException("Item in slot " + i + " is longer than the inventory data");
+            }
+            byte[] item = new byte[length];
+            System.arraycopy(body, position[0], item, 0, length);
+            position[0] += length;
+            reader.accept(i, item);
+        }
+    }
+
+    private static int readSlotCount(byte[] body, int[] position) throws IOException {
+        int slots = readVarInt(body, position);
+        if (slots < 0 || slots > MAX_SLOTS) {
+            throw new IOException("Invalid slot count " + slots + " in inventory data");
+        }
+        return slots;
+    }
+
+    // Everything after the header, inflated when needed
+    private static byte[] body(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE) {
+            throw new IOException("Inventory data is truncated");
+        }
+        if (data[0] != FORMAT_VERSION) {
+            throw new IOException("Unsupported inventory format version " + data[0]);
+        }
+        return (data[1] & FLAG_COMPRESSED) != 0 ? inflate(data, HEADER_SIZE) : data;
+    }
+
+    // Where the slot count starts in the array returned by body()
+    private static int bodyStart(byte[] data) {
+        return (data[1] & FLAG_COMPRESSED) != 0 ? 0 : HEADER_SIZE;
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        // serializeAsBytes refuses air
+        return item == null || item.getType().isAir() || item.getAmount() <= 0;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, input.length - offset);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed inventory data is truncated");
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed inventory data is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] position) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Inventory data is truncated");
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in inventory data");
+    }
+}
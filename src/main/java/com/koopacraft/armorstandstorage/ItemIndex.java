@@ -0,0 +1,67 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Search keys of stored items. Every distinct item gets its keys once, when it is first stored,
+// and backends keep them in armor_stand_item_keys so finding the stands holding an item is an
+// index lookup instead of decoding every inventory. Keys look like
+//   material:netherite_sword
+//   enchant:sharpness        (also for enchantments stored in books)
+//   name:excalibur           (custom name without colors, lower case)
+public final class ItemIndex {
+    // Custom names are cut to this, so every key fits the key column
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private ItemIndex() {
+    }
+
+    public static Set<String> keys(ItemStack item) {
+        Set<String> keys = new TreeSet<>();
+        keys.add("material:" + item.getType().getKey().getKey());
+        if (!item.hasItemMeta()) {
+            return keys;
+        }
+        ItemMeta meta = item.getItemMeta();
+        if (meta.hasDisplayName()) {
+            keys.add(nameKey(ChatColor.stripColor(meta.getDisplayName())));
+        }
+        for (Enchantment enchantment : meta.getEnchants().keySet()) {
+            keys.add("enchant:" + enchantment.getKey().getKey());
+        }
+        if (meta instanceof EnchantmentStorageMeta) {
+            for (Enchantment enchantment : ((EnchantmentStorageMeta) meta).getStoredEnchants().keySet()) {
+                keys.add("enchant:" + enchantment.getKey().getKey());
+            }
+        }
+        return keys;
+    }
+
+    // The key to look up for a search: a material, enchant:<enchantment> or name:<custom name>.
+    // Null if it names no material.
+    public static String parse(String query) {
+        String lower = query.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("enchant:")) {
+            String enchantment = lower.substring("enchant:".length());
+            return "enchant:" + enchantment.substring(enchantment.indexOf(':') + 1);
+        }
+        if (lower.startsWith("name:")) {
+            return nameKey(query.substring("name:".length()));
+        }
+        Material material = Material.matchMaterial(query);
+        return material == null ? null : "material:" + material.getKey().getKey();
+    }
+
+    private static String nameKey(String name) {
+        name = name.trim().toLowerCase(Locale.ROOT);
+        return "name:" + (name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name);
+    }
+}
@@ -0,0 +1,84 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Recently decoded items by their serialized bytes, so an item that is stored many times over
+// is only deserialized once. Callers get clones, the shared copies are never handed out.
+public class ItemInterner {
+    private final int maxItems;
+    // Access-ordered, so the least recently used item is dropped first
+    private final LinkedHashMap<Key, ItemStack> items;
+    private long hits;
+    private long misses;
+
+    private static class Key {
+        private final byte[] data;
+        private final int hash;
+
+        private Key(byte[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && hash == ((Key) other).hash && Arrays.equals(data, ((Key) other).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // 0 or less turns interning off
+    public ItemInterner(int maxItems) {
+        this.maxItems = maxItems;
+        this.items = new LinkedHashMap<Key, ItemStack>(Math.max(16, Math.min(maxItems, 1024)), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ItemStack> eldest) {
+                return size() > ItemInterner.this.maxItems;
+            }
+        };
+    }
+
+    public ItemStack get(byte[] data) {
+        if (maxItems <= 0) {
+            return ItemStack.deserializeBytes(data);
+        }
+        Key key = new Key(data);
+        ItemStack item;
+        synchronized (this) {
+            item = items.get(key);
+            if (item != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (item == null) {
+            // Deserialized outside the lock, two threads racing for the same item both just decode it
+            item = ItemStack.deserializeBytes(data);
+            synchronized (this) {
+                items.put(key, item);
+            }
+        }
+        return item.clone();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,48 @@
+package com.koopacraft.armorstandstorage;
+
+import java.util.UUID;
+
+// A stand holding items with the key that was searched for, from StorageBackend.findItems
+public class ItemMatch {
+    private final UUID id;
+    private final String world;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final int slots;
+
+    public ItemMatch(UUID id, String world, double x, double y, double z, int slots) {
+        this.id = id;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.slots = slots;
+    }
+
+    // Null for rows from before stands were tracked by UUID
+    public UUID getId() {
+        return id;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    // Slots of the stand holding a matching item
+    public int getSlots() {
+        return slots;
+    }
+}
@@ -0,0 +1,172 @@
+package com.koopacraft.armorstandstorage;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Timings and counters for the hot paths, shown by /asstorage stats and optionally dumped to a file.
+//   db.<operation>       time a database thread spent on the operation
+//   db.write-wait/read-wait  time a task waited for a database thread
+//   codec.encode/decode  serialization time, codec.*-bytes counters hold the sizes
+//   handler.<name>       server thread time per call of a listener handler
+//   tick.<name>          server thread time per tick spent in that handler, ticks it did not run count as 0.
+//                        On Folia this adds up every region for each tick of the global region.
+public class Metrics {
+    private final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    // Handler time in the current tick
+    private final Map<String, LongAdder> tickNanos = new ConcurrentHashMap<>();
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    // A listener handler with its timer and tick total looked up once, so timing a call builds no
+    // names and searches no maps. Get one with Metrics.handler and keep it in a field.
+    public class Handler {
+        private final String name;
+        private final LatencyHistogram timer;
+        private final LongAdder tickTotal;
+
+        private Handler(String name) {
+            this.name = name;
+            this.timer = timer("handler." + name);
+            this.tickTotal = tickNanos.computeIfAbsent(name, key -> new LongAdder());
+        }
+
+        // Call once the event is known to be one of ours
+        public HandlerTimer start() {
+            return new HandlerTimer(this);
+        }
+    }
+
+    // Started when a handler begins running on a server thread, see Handler.start
+    public static class HandlerTimer {
+        private final Handler handler;
+        private final long start = System.nanoTime();
+        private final StorageEvents.ListenerHandler event = new StorageEvents.ListenerHandler();
+
+        private HandlerTimer(Handler handler) {
+            this.handler = handler;
+            event.begin();
+        }
+
+        public void stop() {
+            long nanos = System.nanoTime() - start;
+            handler.timer.record(nanos);
+            handler.tickTotal.add(nanos);
+            if (event.shouldCommit()) {
+                event.handler = handler.name;
+                event.commit();
+            }
+        }
+    }
+
+    public Handler handler(String name) {
+        return handlers.computeIfAbsent(name, Handler::new);
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public void record(String name, long nanos) {
+        timer(name).record(nanos);
+    }
+
+    public void count(String name, long amount) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    // Runs once per tick
+    public void endTick() {
+        for (Map.Entry<String, LongAdder> entry : tickNanos.entrySet()) {
+            record("tick." + entry.getKey(), entry.getValue().sumThenReset());
+        }
+    }
+
+    public void reset() {
+        for (LatencyHistogram timer : timers.values()) {
+            timer.reset();
+        }
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+        since = System.currentTimeMillis();
+    }
+
+    // Queue and cache numbers are read from the given plugin, everything else is collected here
+    public List<String> report(ArmorStandStorage plugin) {
+        List<String> lines = new ArrayList<>();
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - since);
+        lines.add("ArmorStandStorage stats for the last " + (seconds / 60) + "m " + (seconds % 60) + "s");
+
+        Database database = plugin.getDatabase();
+        InventoryStore store = plugin.getInventoryStore();
+        String saveQueue = store instanceof DatabaseStore
+                ? String.valueOf(((DatabaseStore) store).getSaveQueue().size()) : "-";
+        lines.add(String.format("Queues: %s pending saves, %d database writes, %d database reads",
+                saveQueue, database.getWriteQueueSize(), database.getReadQueueSize()));
+
+        InventoryCache cache = database.getCache();
+        lines.add(String.format("Cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries, %.1f/%.1f MB",
+                cache.getHits(), cache.getMisses(), cache.getHitRate() * 100, cache.getEvictions(), cache.size(),
+                cache.getUsedBytes() / 1048576.0, cache.getMaxBytes() / 1048576.0));
+
+        ItemInterner interner = database.getCodec().getInterner();
+        long decoded = interner.getHits() + interner.getMisses();
+        lines.add(String.format("Items: %d decoded, %.1f%% from %d interned",
+                decoded, decoded == 0 ? 0.0 : 100.0 * interner.getHits() / decoded, interner.size()));
+
+        StandRegistry registry = database.getRegistry();
+        lines.add(String.format("Registry: %d stands in %d chunks", registry.getStands(), registry.getChunks()));
+
+        if (store instanceof DatabaseStore) {
+            OrphanSweeper sweeper = ((DatabaseStore) store).getSweeper();
+            lines.add(String.format("Orphans: %d chunks unchecked, %d queued, %d rows flagged, %d deleted",
+                    sweeper.getUncheckedChunks(), sweeper.getPending(), sweeper.getFlagged(), sweeper.getPurged()));
+        }
+
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(timers).entrySet()) {
+            LatencyHistogram timer = entry.getValue();
+            if (timer.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format("%s: %d, mean %s, p50 %s, p95 %s, p99 %s, max %s",
+                    entry.getKey(), timer.getCount(), format(timer.getMean()), format(timer.getPercentile(50)),
+                    format(timer.getPercentile(95)), format(timer.getPercentile(99)), format(timer.getMax())));
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue().sum());
+        }
+        return lines;
+    }
+
+    private static String format(double nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format("%.2fms", nanos / 1_000_000);
+        }
+        return String.format("%.1fus", nanos / 1_000);
+    }
+
+    public void dump(ArmorStandStorage plugin, File file) {
+        List<String> lines = report(plugin);
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            writer.println("[" + LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "]");
+            for (String line : lines) {
+                writer.println(line);
+            }
+            writer.println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Finds rows whose armor stand is gone without dying, e.g. removed by a command, an explosion, a world
+// edit or a deleted chunk. Every chunk that has rows is looked at once per run, the first time its
+// entities load: stands it should hold but doesn't are checked again on the thread owning the chunk,
+// a few chunks per tick within a time budget. Rows whose stand is still missing then are flagged, and
+// flagged rows are deleted in batches once they have been flagged for longer than the retention time.
+// A flagged stand that turns up again, e.g. because it was pushed into another chunk, gets its flag
+// cleared when it is registered or saved.
+public class OrphanSweeper {
+    private static final int PURGE_BATCH_SIZE = 100;
+
+    private final ArmorStandStorage plugin;
+    private final long budgetNanos;
+    private final long retentionMillis;
+    // Chunks with rows that haven't been looked at yet, by world name
+    private final Map<String, LongObjectMap<Boolean>> unchecked = new HashMap<>();
+    private final Queue<Candidate> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private final AtomicInteger flagged = new AtomicInteger();
+    private final AtomicInteger purged = new AtomicInteger();
+    private final Metrics.Handler checkHandler;
+    private volatile boolean ready;
+    private Scheduler.Task checkTask;
+    private Scheduler.Task purgeTask;
+
+    // Stored stands of a chunk that weren't among its entities when its rows were read
+    private static class Candidate {
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private final Collection<UUID> ids;
+
+        private Candidate(World world, int chunkX, int chunkZ, Collection<UUID> ids) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.ids = ids;
+        }
+    }
+
+    public OrphanSweeper(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+        this.budgetNanos = plugin.getOrphanCheckBudget() * 1000L;
+        this.retentionMillis = plugin.getOrphanRetention();
+        this.checkHandler = plugin.getMetrics().handler("orphan-check");
+    }
+
+    public void start() {
+        if (budgetNanos <= 0) {
+            return;
+        }
+        plugin.getDatabase().readStoredChunksAsync((world, chunkX, chunkZ) -> markUnchecked(world, chunkX, chunkZ))
+                .thenRun(() -> {
+                    ready = true;
+                    plugin.debug("Looking for orphaned rows in " + getUncheckedChunks() + " chunks as they load");
+                    // This runs on a database thread, the chunks can only be looked at from the server's
+                    plugin.getScheduler().runGlobal(() -> plugin.getScheduler().forEachLoadedChunk(this::chunkLoaded));
+                });
+        checkTask = plugin.getScheduler().runGlobalTimer(this::checkPending, 1L, 1L);
+        purgeTask = plugin.getScheduler().runAsyncTimer(task -> purge(), 1200L, 1200L);
+    }
+
+    public void stop() {
+        if (checkTask != null) {
+            checkTask.cancel();
+        }
+        if (purgeTask != null) {
+            purgeTask.cancel();
+        }
+        pending.clear();
+    }
+
+    private synchronized void markUnchecked(String world, int chunkX, int chunkZ) {
+        unchecked.computeIfAbsent(world, key -> new LongObjectMap<>()).put(StandRegistry.chunkKey(chunkX, chunkZ), Boolean.TRUE);
+    }
+
+    // Returns true if the chunk was still to be checked
+    private synchronized boolean takeUnchecked(String world, long chunk) {
+        LongObjectMap<Boolean> chunks = unchecked.get(world);
+        if (chunks == null || chunks.remove(chunk) == null) {
+            return false;
+        }
+        if (chunks.isEmpty()) {
+            unchecked.remove(world);
+        }
+        return true;
+    }
+
+    // Called on the thread owning the chunk once its entities are loaded
+    public void chunkLoaded(Chunk chunk) {
+        if (!ready) {
+            return;
+        }
+        World world = chunk.getWorld();
+        int chunkX = chunk.getX();
+        int chunkZ = chunk.getZ();
+        if (!takeUnchecked(world.getName(), StandRegistry.chunkKey(chunkX, chunkZ))) {
+            return;
+        }
+
+        Set<UUID> present = new HashSet<>();
+        for (Entity entity : chunk.getEntities()) {
+            present.add(entity.getUniqueId());
+        }
+        plugin.getDatabase().getArmorStandsInChunkAsync(world.getName(), chunkX, chunkZ).thenAccept(ids -> {
+            if (ids == null) {
+                // Couldn't be read, try again next time the chunk loads
+                markUnchecked(world.getName(), chunkX, chunkZ);
+                return;
+            }
+            ids.removeAll(present);
+            if (!ids.isEmpty()) {
+                pending.add(new Candidate(world, chunkX, chunkZ, ids));
+            }
+        });
+    }
+
+    // Checks queued chunks until the budget for this tick is used up. On Folia each check is handed
+    // to the region owning the chunk, so the budget only limits how many are handed out per tick.
+    private void checkPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Metrics.HandlerTimer timer = checkHandler.start();
+        try {
+            long start = System.nanoTime();
+            Candidate candidate;
+            while (System.nanoTime() - start < budgetNanos && (candidate = pending.poll()) != null) {
+                Candidate next = candidate;
+                if (plugin.getScheduler().isFolia()) {
+                    plugin.getScheduler().runAtChunk(next.world, next.chunkX, next.chunkZ, () -> check(next));
+                } else {
+                    check(next);
+                }
+            }
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void check(Candidate candidate) {
+        World world = candidate.world;
+        if (!world.isChunkLoaded(candidate.chunkX, candidate.chunkZ)) {
+            markUnchecked(world.getName(), candidate.chunkX, candidate.chunkZ);
+            return;
+        }
+        Chunk chunk = world.getChunkAt(candidate.chunkX, candidate.chunkZ);
+        if (!chunk.isEntitiesLoaded()) {
+            markUnchecked(world.getName(), candidate.chunkX, candidate.chunkZ);
+            return;
+        }
+
+        // Placed or moved in since the rows were read
+        Set<UUID> missing = new HashSet<>(candidate.ids);
+        for (Entity entity : chunk.getEntities()) {
+            missing.remove(entity.getUniqueId());
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        plugin.getDatabase().markOrphansAsync(world, candidate.chunkX, candidate.chunkZ, missing).thenAccept(count -> {
+            if (count > 0) {
+                flagged.addAndGet(count);
+                plugin.debug("Flagged " + count + " armor stand rows whose stand is gone in chunk "
+                        + candidate.chunkX + ", " + candidate.chunkZ + " of " + world.getName());
+            }
+        });
+    }
+
+    // Deletes rows flagged for longer than the retention time, one batch per writer task so saves get in between
+    private void purge() {
+        if (purging.compareAndSet(false, true)) {
+            purgeBatch();
+        }
+    }
+
+    private void purgeBatch() {
+        long before = System.currentTimeMillis() - retentionMillis;
+        plugin.getDatabase().purgeOrphansAsync(before, PURGE_BATCH_SIZE).whenComplete((removed, error) -> {
+            if (removed != null && !removed.isEmpty()) {
+                purged.addAndGet(removed.size());
+                plugin.debug("Deleted " + removed.size() + " orphaned armor stand rows");
+            }
+            if (removed != null && removed.size() == PURGE_BATCH_SIZE) {
+                purgeBatch();
+            } else {
+                purging.set(false);
+            }
+        });
+    }
+
+    public synchronized int getUncheckedChunks() {
+        int chunks = 0;
+        for (LongObjectMap<Boolean> world : unchecked.values()) {
+            chunks += world.size();
+        }
+        return chunks;
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public int getFlagged() {
+        return flagged.get();
+    }
+
+    public int getPurged() {
+        return purged.get();
+    }
+}
@@ -0,0 +1,818 @@
+package com.koopacraft.armorstandstorage;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Shared MySQL, MariaDB or PostgreSQL database behind a HikariCP pool, so several servers can use one store.
+// H2 in MySQL compatibility mode is supported for trying this backend locally without a database server.
+public class PooledJdbcBackend implements StorageBackend {
+    // Items without references are only deleted once no server has stored them for this long,
+    // so a save on another server that is about to refer to one again can't lose it
+    private static final long ITEM_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int MIGRATION_BATCH_SIZE = 500;
+
+    private final File dataFolder;
+    private final Logger logger;
+    private final ConfigurationSection config;
+    private final ItemCodec codec;
+    private final String type;
+    private final int poolSize;
+    private HikariDataSource dataSource;
+
+    private String registerSql;
+    private String upsertSql;
+    private String upsertSlotSql;
+    private String upsertItemSql;
+    private String insertKeySql;
+
+    public PooledJdbcBackend(ArmorStandStorage plugin, ConfigurationSection config, ItemCodec codec, int poolSize) {
+        this(plugin.getDataFolder(), plugin.getLogger(), config, codec, poolSize);
+    }
+
+    // Without the plugin, so the backend can be tried against an embedded H2 database in tests
+    PooledJdbcBackend(File dataFolder, Logger logger, ConfigurationSection config, ItemCodec codec, int poolSize) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.config = config;
+        this.codec = codec;
+        this.type = config.getString("type", "mysql").toLowerCase(Locale.ROOT);
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    public void open() throws Exception {
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName("ArmorStandStorage");
+        hikari.setMaximumPoolSize(poolSize);
+        hikari.setMinimumIdle(Math.min(2, poolSize));
+        hikari.setUsername(config.getString("username", "root"));
+        hikari.setPassword(config.getString("password", ""));
+
+        String host = config.getString("host", "localhost");
+        String name = config.getString("name", "armorstandstorage");
+        switch (type) {
+            case "mysql":
+                hikari.setDriverClassName("com.mysql.cj.jdbc.Driver");
+                hikari.setJdbcUrl("jdbc:mysql://" + host + ":" + config.getInt("port", 3306) + "/" + name);
+                // Server-side prepared statements, cached per connection, and multi-row batch inserts
+                hikari.addDataSourceProperty("useServerPrepStmts", "true");
+                hikari.addDataSourceProperty("cachePrepStmts", "true");
+                hikari.addDataSourceProperty("prepStmtCacheSize", "64");
+                hikari.addDataSourceProperty("rewriteBatchedStatements", "true");
+                break;
+            case "mariadb":
+                hikari.setDriverClassName("org.mariadb.jdbc.Driver");
+                hikari.setJdbcUrl("jdbc:mariadb://" + host + ":" + config.getInt("port", 3306) + "/" + name);
+                hikari.addDataSourceProperty("useServerPrepStmts", "true");
+                hikari.addDataSourceProperty("cachePrepStmts", "true");
+                hikari.addDataSourceProperty("prepStmtCacheSize", "64");
+                break;
+            case "postgresql":
+                hikari.setDriverClassName("org.postgresql.Driver");
+                hikari.setJdbcUrl("jdbc:postgresql://" + host + ":" + config.getInt("port", 5432) + "/" + name);
+                // Switch to a named server-side statement on the first execution instead of the fifth
+                hikari.addDataSourceProperty("prepareThreshold", "1");
+                hikari.addDataSourceProperty("reWriteBatchedInserts", "true");
+                break;
+            case "h2":
+                hikari.setDriverClassName("org.h2.Driver");
+                hikari.setJdbcUrl("jdbc:h2:" + new File(dataFolder, name).getAbsolutePath()
+                        + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown database type: " + type);
+        }
+        dataSource = new HikariDataSource(hikari);
+
+        if (type.equals("postgresql")) {
+            // A stand that is already stored was not found in its chunk, so it was moved or flagged as gone
+            registerSql = "INSERT INTO armor_stands (uuid, world, x, y, z) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (uuid) DO UPDATE SET world = EXCLUDED.world, x = EXCLUDED.x, y = EXCLUDED.y, " +
+                    "z = EXCLUDED.z, orphaned_at = NULL";
+            upsertSql = "INSERT INTO armor_stands (uuid, world, x, y, z, contents) VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (uuid) DO UPDATE SET world = EXCLUDED.world, x = EXCLUDED.x, y = EXCLUDED.y, " +
+                    "z = EXCLUDED.z, contents = EXCLUDED.contents, orphaned_at = NULL";
+            upsertSlotSql = "INSERT INTO armor_stand_slots (uuid, slot, item_hash) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (uuid, slot) DO UPDATE SET item_hash = EXCLUDED.item_hash";
+            upsertItemSql = "INSERT INTO armor_stand_items (hash, data, last_used) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (hash) DO UPDATE SET last_used = EXCLUDED.last_used";
+            insertKeySql = "INSERT INTO armor_stand_item_keys (item_key, hash) VALUES (?, ?) ON CONFLICT DO NOTHING";
+        } else {
+            registerSql = "INSERT INTO armor_stands (uuid, world, x, y, z) VALUES (?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE world = VALUES(world), x = VALUES(x), y = VALUES(y), " +
+                    "z = VALUES(z), orphaned_at = NULL";
+            upsertSql = "INSERT INTO armor_stands (uuid, world, x, y, z, contents) VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE world = VALUES(world), x = VALUES(x), y = VALUES(y), " +
+                    "z = VALUES(z), contents = VALUES(contents), orphaned_at = NULL";
+            upsertSlotSql = "INSERT INTO armor_stand_slots (uuid, slot, item_hash) VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE item_hash = VALUES(item_hash)";
+            upsertItemSql = "INSERT INTO armor_stand_items (hash, data, last_used) VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE last_used = VALUES(last_used)";
+            insertKeySql = "INSERT IGNORE INTO armor_stand_item_keys (item_key, hash) VALUES (?, ?)";
+        }
+
+        createSchema();
+    }
+
+    private void createSchema() throws SQLException {
+        boolean postgres = type.equals("postgresql");
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            if (!tableExists(connection, "armor_stands")) {
+                stmt.execute("CREATE TABLE armor_stands (" +
+                        (postgres ? "id BIGSERIAL PRIMARY KEY," : "id BIGINT AUTO_INCREMENT PRIMARY KEY,") +
+                        "uuid CHAR(36) NOT NULL UNIQUE," +
+                        "world VARCHAR(255) NOT NULL," +
+                        "x DOUBLE PRECISION NOT NULL," +
+                        "y DOUBLE PRECISION NOT NULL," +
+                        "z DOUBLE PRECISION NOT NULL," +
+                        (postgres ? "contents BYTEA," : "contents LONGBLOB,") +
+                        "registered_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")");
+                stmt.execute("CREATE INDEX idx_armor_stands_location ON armor_stands (world, x, y, z)");
+                logger.info("Created armor_stands table in the " + type + " database");
+            }
+            if (!columnExists(connection, "armor_stands", "orphaned_at")) {
+                // Set when the stand was found missing from its chunk, see OrphanSweeper
+                stmt.execute("ALTER TABLE armor_stands ADD COLUMN orphaned_at TIMESTAMP NULL");
+                stmt.execute("CREATE INDEX idx_armor_stands_orphaned ON armor_stands (orphaned_at)");
+            }
+            if (!tableExists(connection, "armor_stand_items")) {
+                // Every distinct item once, slots refer to it by content hash
+                stmt.execute("CREATE TABLE armor_stand_items (" +
+                        (postgres ? "hash BYTEA PRIMARY KEY," : "hash BINARY(16) PRIMARY KEY,") +
+                        (postgres ? "data BYTEA NOT NULL," : "data LONGBLOB NOT NULL,") +
+                        "last_used TIMESTAMP NOT NULL" +
+                        ")");
+                logger.info("Created armor_stand_items table in the " + type + " database");
+            } else if (!postgres && "BLOB".equalsIgnoreCase(columnType(connection, "armor_stand_items", "data"))) {
+                // Created as BLOB before, which stops at 64 KB and cuts off full shulker boxes and books
+                stmt.execute("ALTER TABLE armor_stand_items MODIFY data LONGBLOB NOT NULL");
+            }
+            if (!columnExists(connection, "armor_stand_items", "indexed")) {
+                // Search keys per distinct item, see ItemIndex. Existing items are indexed in the background.
+                stmt.execute("ALTER TABLE armor_stand_items ADD COLUMN indexed BOOLEAN NOT NULL DEFAULT FALSE");
+                stmt.execute("CREATE INDEX idx_armor_stand_items_indexed ON armor_stand_items (indexed)");
+            }
+            if (!tableExists(connection, "armor_stand_item_keys")) {
+                stmt.execute("CREATE TABLE armor_stand_item_keys (" +
+                        "item_key VARCHAR(255) NOT NULL," +
+                        (postgres ? "hash BYTEA NOT NULL," : "hash BINARY(16) NOT NULL,") +
+                        "PRIMARY KEY (item_key, hash)" +
+                        ")");
+            }
+            if (!tableExists(connection, "armor_stand_slots") && tableExists(connection, "armor_stand_slots_v2")) {
+                // Stopped between moving the slots over and renaming the new table
+                stmt.execute("ALTER TABLE armor_stand_slots_v2 RENAME TO armor_stand_slots");
+            }
+            if (!tableExists(connection, "armor_stand_slots")) {
+                createSlotTable(stmt, "armor_stand_slots");
+                logger.info("Created armor_stand_slots table in the " + type + " database");
+            } else if (columnExists(connection, "armor_stand_slots", "item")) {
+                migrateToItemStore(connection);
+            }
+        }
+    }
+
+    // One row per occupied slot so a save only touches the slots that changed
+    private void createSlotTable(Statement stmt, String name) throws SQLException {
+        boolean postgres = type.equals("postgresql");
+        stmt.execute("CREATE TABLE " + name + " (" +
+                "uuid CHAR(36) NOT NULL," +
+                "slot INTEGER NOT NULL," +
+                (postgres ? "item_hash BYTEA NOT NULL," : "item_hash BINARY(16) NOT NULL,") +
+                "PRIMARY KEY (uuid, slot)" +
+                ")");
+        // Lets collectItems find items without references without scanning every slot
+        stmt.execute("CREATE INDEX idx_armor_stand_slots_item ON " + name + " (item_hash)");
+    }
+
+    // Slots from before items were stored once hold the item bytes themselves. Moves those into
+    // armor_stand_items through a new slot table that replaces the old one when everything is copied.
+    private void migrateToItemStore(Connection connection) throws SQLException {
+        logger.info("Moving stored items into the armor_stand_items table...");
+        try (Statement stmt = connection.createStatement()) {
+            if (tableExists(connection, "armor_stand_slots_v2")) {
+                // Left over from an attempt that didn't finish
+                stmt.execute("DROP TABLE armor_stand_slots_v2");
+            }
+            createSlotTable(stmt, "armor_stand_slots_v2");
+        }
+
+        int moved = 0;
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement("SELECT uuid, slot, item FROM armor_stand_slots");
+             PreparedStatement items = connection.prepareStatement(upsertItemSql);
+             PreparedStatement slots = connection.prepareStatement("INSERT INTO armor_stand_slots_v2 (uuid, slot, item_hash) VALUES (?, ?, ?)")) {
+            Map<ByteBuffer, byte[]> batch = new TreeMap<>();
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    slots.setString(1, rs.getString("uuid"));
+                    slots.setInt(2, rs.getInt("slot"));
+                    slots.setBytes(3, addItem(batch, rs.getBytes("item")));
+                    slots.addBatch();
+                    if (++moved % MIGRATION_BATCH_SIZE == 0) {
+                        storeItems(items, batch);
+                        slots.executeBatch();
+                    }
+                }
+            }
+            storeItems(items, batch);
+            slots.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE armor_stand_slots");
+            stmt.execute("ALTER TABLE armor_stand_slots_v2 RENAME TO armor_stand_slots");
+        }
+        logger.info("Moved " + moved + " stored items");
+    }
+
+    // Queues an item for storeItems and returns its hash
+    private static byte[] addItem(Map<ByteBuffer, byte[]> batch, byte[] item) {
+        byte[] hash = ItemCodec.hash(item);
+        batch.put(ByteBuffer.wrap(hash), item);
+        return hash;
+    }
+
+    // Stores the queued items and marks them as used now. The map holds each item once, since PostgreSQL
+    // refuses to upsert the same row twice in one statement, and sorts them so that servers saving at the
+    // same time lock shared items in the same order.
+    private void storeItems(PreparedStatement pstmt, Map<ByteBuffer, byte[]> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (Map.Entry<ByteBuffer, byte[]> item : batch.entrySet()) {
+            pstmt.setBytes(1, item.getKey().array());
+            pstmt.setBytes(2, item.getValue());
+            pstmt.setTimestamp(3, now);
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+        batch.clear();
+    }
+
+    private boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getTables(null, null, name, new String[]{"TABLE"})) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The database's name for the column's type, null if there is no such column
+    private String columnType(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(null, null, table, column)) {
+            return rs.next() ? rs.getString("TYPE_NAME") : null;
+        }
+    }
+
+    private boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            for (String columnName : new String[]{column, column.toUpperCase(Locale.ROOT)}) {
+                try (ResultSet rs = metaData.getColumns(null, null, name, columnName)) {
+                    if (rs.next()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void registerArmorStands(Collection<StandRecord> stands) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(registerSql)) {
+                for (StandRecord stand : stands) {
+                    pstmt.setString(1, stand.getId().toString());
+                    setLocation(pstmt, 2, stand.getLocation());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRegistered(UUID id, Location location) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("SELECT id FROM armor_stands WHERE uuid = ?")) {
+            pstmt.setString(1, id.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    @Override
+    public Collection<UUID> getArmorStandsInChunk(String world, int chunkX, int chunkZ) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("SELECT uuid FROM armor_stands WHERE world = ? " +
+                     "AND x >= ? AND x < ? AND z >= ? AND z < ? AND orphaned_at IS NULL")) {
+            setChunk(pstmt, 1, world, chunkX, chunkZ);
+            List<UUID> ids = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(UUID.fromString(rs.getString(1)));
+                }
+            }
+            return ids;
+        }
+    }
+
+    @Override
+    public void readStoredChunks(ChunkConsumer consumer) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("SELECT world, x, z FROM armor_stands WHERE orphaned_at IS NULL")) {
+            // Stream the rows where the driver supports it instead of holding the whole table in memory
+            pstmt.setFetchSize(type.equals("mysql") ? Integer.MIN_VALUE : 1000);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString(1), (int) Math.floor(rs.getDouble(2)) >> 4, (int) Math.floor(rs.getDouble(3)) >> 4);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int markOrphans(String world, int chunkX, int chunkZ, Collection<UUID> ids) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("UPDATE armor_stands SET orphaned_at = ? WHERE world = ? " +
+                     "AND x >= ? AND x < ? AND z >= ? AND z < ? AND uuid = ? AND orphaned_at IS NULL")) {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            int flagged = 0;
+            for (UUID id : ids) {
+                pstmt.setTimestamp(1, now);
+                setChunk(pstmt, 2, world, chunkX, chunkZ);
+                pstmt.setString(7, id.toString());
+                flagged += pstmt.executeUpdate();
+            }
+            return flagged;
+        }
+    }
+
+    @Override
+    public Collection<UUID> purgeOrphans(long flaggedBefore, int limit) throws Exception {
+        Timestamp before = new Timestamp(flaggedBefore);
+        try (Connection connection = dataSource.getConnection()) {
+            List<UUID> candidates = new ArrayList<>();
+            try (PreparedStatement pstmt = connection.prepareStatement("SELECT uuid FROM armor_stands WHERE orphaned_at < ? LIMIT ?")) {
+                pstmt.setTimestamp(1, before);
+                pstmt.setInt(2, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        candidates.add(UUID.fromString(rs.getString(1)));
+                    }
+                }
+            }
+
+            List<UUID> removed = new ArrayList<>();
+            connection.setAutoCommit(false);
+            try (PreparedStatement stands = connection.prepareStatement("DELETE FROM armor_stands WHERE uuid = ? AND orphaned_at < ?");
+                 PreparedStatement slots = connection.prepareStatement("DELETE FROM armor_stand_slots WHERE uuid = ?")) {
+                for (UUID id : candidates) {
+                    // Another server may have seen the stand since, then its flag is gone and the row stays
+                    stands.setString(1, id.toString());
+                    stands.setTimestamp(2, before);
+                    if (stands.executeUpdate() > 0) {
+                        slots.setString(1, id.toString());
+                        slots.executeUpdate();
+                        removed.add(id);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return removed;
+        }
+    }
+
+    @Override
+    public boolean removeArmorStand(UUID id, Location location) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement slots = connection.prepareStatement("DELETE FROM armor_stand_slots WHERE uuid = ?");
+                 PreparedStatement pstmt = connection.prepareStatement("DELETE FROM armor_stands WHERE uuid = ?")) {
+                slots.setString(1, id.toString());
+                slots.executeUpdate();
+                pstmt.setString(1, id.toString());
+                boolean removed = pstmt.executeUpdate() > 0;
+                connection.commit();
+                return removed;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public void saveInventories(Map<StandRecord, Map<Integer, byte[]>> inventories) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stands = connection.prepareStatement(upsertSql);
+                 PreparedStatement clear = connection.prepareStatement("DELETE FROM armor_stand_slots WHERE uuid = ?");
+                 PreparedStatement upsert = connection.prepareStatement(upsertSlotSql);
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM armor_stand_slots WHERE uuid = ? AND slot = ?");
+                 PreparedStatement items = connection.prepareStatement(upsertItemSql)) {
+                Map<ByteBuffer, byte[]> batch = new TreeMap<>();
+                for (Map.Entry<StandRecord, Map<Integer, byte[]>> entry : inventories.entrySet()) {
+                    StandRecord stand = entry.getKey();
+                    String uuid = stand.getId().toString();
+                    Map<Integer, byte[]> changes = entry.getValue();
+                    if (stand.getChangedSlots() == null) {
+                        clear.setString(1, uuid);
+                        clear.addBatch();
+                    } else {
+                        // Contents stored whole have to be split into slots before single slots can change
+                        Map<Integer, byte[]> whole = loadWholeInventory(connection, uuid);
+                        if (whole != null) {
+                            whole.putAll(changes);
+                            changes = whole;
+                        }
+                    }
+
+                    // The slots hold the contents from now on
+                    stands.setString(1, uuid);
+                    setLocation(stands, 2, stand.getLocation());
+                    stands.setBytes(6, null);
+                    stands.addBatch();
+
+                    for (Map.Entry<Integer, byte[]> change : changes.entrySet()) {
+                        if (change.getValue() != null) {
+                            upsert.setString(1, uuid);
+                            upsert.setInt(2, change.getKey());
+                            upsert.setBytes(3, addItem(batch, change.getValue()));
+                            upsert.addBatch();
+                        } else if (stand.getChangedSlots() != null) {
+                            delete.setString(1, uuid);
+                            delete.setInt(2, change.getKey());
+                            delete.addBatch();
+                        }
+                    }
+                }
+                // Clearing has to come before the new slots go in
+                storeItems(items, batch);
+                clear.executeBatch();
+                stands.executeBatch();
+                delete.executeBatch();
+                upsert.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // The slots of an inventory that is still stored as a single value, null if there is none
+    private Map<Integer, byte[]> loadWholeInventory(Connection connection, String uuid) throws Exception {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT contents FROM armor_stands WHERE uuid = ?")) {
+            pstmt.setString(1, uuid);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                byte[] data = rs.next() ? rs.getBytes("contents") : null;
+                return data == null ? null : codec.split(data);
+            }
+        }
+    }
+
+    @Override
+    public byte[] loadInventory(UUID id, Location location) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            return loadInventory(connection, id);
+        }
+    }
+
+    @Override
+    public Map<UUID, byte[]> loadInventories(Collection<UUID> ids) throws Exception {
+        Map<UUID, byte[]> inventories = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (UUID id : ids) {
+                    byte[] data = loadInventory(connection, id);
+                    if (data != null) {
+                        inventories.put(id, data);
+                    }
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return inventories;
+    }
+
+    private byte[] loadInventory(Connection connection, UUID id) throws Exception {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT contents FROM armor_stands WHERE uuid = ?")) {
+            pstmt.setString(1, id.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                byte[] data = rs.getBytes("contents");
+                if (data != null) {
+                    return data;
+                }
+            }
+        }
+
+        // Stored per slot, put the inventory back together
+        Map<Integer, byte[]> items = new TreeMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT s.slot, i.data FROM armor_stand_slots s " +
+                "JOIN armor_stand_items i ON i.hash = s.item_hash WHERE s.uuid = ?")) {
+            pstmt.setString(1, id.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.put(rs.getInt("slot"), rs.getBytes("data"));
+                }
+            }
+        }
+        return items.isEmpty() ? null : codec.assemble(items);
+    }
+
+    @Override
+    public int countInventories() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("SELECT COUNT(*) FROM armor_stands " +
+                     "WHERE contents IS NOT NULL OR EXISTS (SELECT 1 FROM armor_stand_slots WHERE uuid = armor_stands.uuid)");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    @Override
+    public int exportInventories(StorageArchive.Writer out) throws Exception {
+        // Stands come in id order with their slots right after them
+        String sql = "SELECT a.id, a.uuid, a.world, a.x, a.y, a.z, a.contents, s.slot, i.data " +
+                "FROM armor_stands a LEFT JOIN armor_stand_slots s ON s.uuid = a.uuid " +
+                "LEFT JOIN armor_stand_items i ON i.hash = s.item_hash ORDER BY a.id";
+        try (Connection connection = dataSource.getConnection()) {
+            // PostgreSQL only streams inside a transaction
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setFetchSize(type.equals("mysql") ? Integer.MIN_VALUE : 1000);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    long current = -1;
+                    StorageArchive.Entry entry = null;
+                    while (rs.next()) {
+                        long rowId = rs.getLong("id");
+                        if (rowId != current) {
+                            if (entry != null) {
+                                out.write(entry);
+                            }
+                            current = rowId;
+                            byte[] contents = rs.getBytes("contents");
+                            Map<Integer, byte[]> slots = contents == null ? new TreeMap<>() : codec.split(contents);
+                            entry = new StorageArchive.Entry(UUID.fromString(rs.getString("uuid")), rs.getString("world"),
+                                    rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"), slots);
+                        }
+                        byte[] item = rs.getBytes("data");
+                        if (item != null) {
+                            entry.getSlots().put(rs.getInt("slot"), item);
+                        }
+                    }
+                    if (entry != null) {
+                        out.write(entry);
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return out.getWritten();
+    }
+
+    @Override
+    public void importInventories(Collection<StorageArchive.Entry> entries) throws Exception {
+        int skipped = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stands = connection.prepareStatement(upsertSql);
+                 PreparedStatement clear = connection.prepareStatement("DELETE FROM armor_stand_slots WHERE uuid = ?");
+                 PreparedStatement upsert = connection.prepareStatement(upsertSlotSql);
+                 PreparedStatement items = connection.prepareStatement(upsertItemSql)) {
+                Map<ByteBuffer, byte[]> batch = new TreeMap<>();
+                for (StorageArchive.Entry entry : entries) {
+                    if (entry.getId() == null) {
+                        // Rows without a UUID only exist in old SQLite files
+                        skipped++;
+                        continue;
+                    }
+                    String uuid = entry.getId().toString();
+                    stands.setString(1, uuid);
+                    stands.setString(2, entry.getWorld());
+                    stands.setDouble(3, entry.getX());
+                    stands.setDouble(4, entry.getY());
+                    stands.setDouble(5, entry.getZ());
+                    stands.setBytes(6, null);
+                    stands.addBatch();
+                    clear.setString(1, uuid);
+                    clear.addBatch();
+                    for (Map.Entry<Integer, byte[]> slot : entry.getSlots().entrySet()) {
+                        upsert.setString(1, uuid);
+                        upsert.setInt(2, slot.getKey());
+                        upsert.setBytes(3, addItem(batch, slot.getValue()));
+                        upsert.addBatch();
+                    }
+                }
+                storeItems(items, batch);
+                stands.executeBatch();
+                clear.executeBatch();
+                upsert.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        if (skipped > 0) {
+            logger.warning("Skipped " + skipped + " imported stands that have no UUID");
+        }
+    }
+
+    @Override
+    public String compact() throws Exception {
+        int slots;
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            slots = stmt.executeUpdate("DELETE FROM armor_stand_slots WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM armor_stands WHERE armor_stands.uuid = armor_stand_slots.uuid)");
+        }
+        int items = collectItems();
+        // Giving the space back to the file system is up to the database server here
+        return "removed " + slots + " stray slots and " + items + " unused items";
+    }
+
+    @Override
+    public int collectItems() throws Exception {
+        // Saves mark the items they refer to as used, so one that is referenced again while this
+        // runs is either waited for and skipped or inserted again by the save afterwards
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("DELETE FROM armor_stand_items WHERE last_used < ? " +
+                     "AND NOT EXISTS (SELECT 1 FROM armor_stand_slots WHERE armor_stand_slots.item_hash = armor_stand_items.hash)")) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - ITEM_GRACE_MILLIS));
+            int removed = pstmt.executeUpdate();
+            if (removed > 0) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.executeUpdate("DELETE FROM armor_stand_item_keys WHERE NOT EXISTS (" +
+                            "SELECT 1 FROM armor_stand_items WHERE armor_stand_items.hash = armor_stand_item_keys.hash)");
+                }
+            }
+            return removed;
+        }
+    }
+
+    @Override
+    public int indexItems(int limit) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            Map<ByteBuffer, byte[]> items = new TreeMap<>();
+            try (PreparedStatement pstmt = connection.prepareStatement("SELECT hash, data FROM armor_stand_items WHERE indexed = FALSE LIMIT ?")) {
+                pstmt.setInt(1, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        items.put(ByteBuffer.wrap(rs.getBytes("hash")), rs.getBytes("data"));
+                    }
+                }
+            }
+            if (items.isEmpty()) {
+                return 0;
+            }
+
+            // Another server indexing the same items at the same time writes the same keys
+            connection.setAutoCommit(false);
+            try (PreparedStatement keys = connection.prepareStatement(insertKeySql);
+                 PreparedStatement indexed = connection.prepareStatement("UPDATE armor_stand_items SET indexed = TRUE WHERE hash = ?")) {
+                for (Map.Entry<ByteBuffer, byte[]> item : items.entrySet()) {
+                    for (String key : keys(item.getValue())) {
+                        keys.setString(1, key);
+                        keys.setBytes(2, item.getKey().array());
+                        keys.addBatch();
+                    }
+                    indexed.setBytes(1, item.getKey().array());
+                    indexed.addBatch();
+                }
+                keys.executeBatch();
+                indexed.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return items.size();
+        }
+    }
+
+    // Search keys of a stored item, none if it can't be read on this server
+    private Collection<String> keys(byte[] item) {
+        try {
+            return ItemIndex.keys(ItemStack.deserializeBytes(item));
+        } catch (Exception e) {
+            logger.warning("Could not read a stored item to index it: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<ItemMatch> findItems(String key, int offset, int limit) throws Exception {
+        List<ItemMatch> matches = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement("SELECT a.uuid, a.world, a.x, a.y, a.z, COUNT(*) AS slots " +
+                     "FROM armor_stand_item_keys k JOIN armor_stand_slots s ON s.item_hash = k.hash " +
+                     "JOIN armor_stands a ON a.uuid = s.uuid WHERE k.item_key = ? AND a.orphaned_at IS NULL " +
+                     "GROUP BY a.id, a.uuid, a.world, a.x, a.y, a.z ORDER BY a.id LIMIT ? OFFSET ?")) {
+            pstmt.setString(1, key);
+            pstmt.setInt(2, limit);
+            pstmt.setInt(3, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    matches.add(new ItemMatch(UUID.fromString(rs.getString("uuid")), rs.getString("world"),
+                            rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"), rs.getInt("slots")));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void setChunk(PreparedStatement pstmt, int index, String world, int chunkX, int chunkZ) throws SQLException {
+        pstmt.setString(index, world);
+        pstmt.setInt(index + 1, chunkX << 4);
+        pstmt.setInt(index + 2, (chunkX << 4) + 16);
+        pstmt.setInt(index + 3, chunkZ << 4);
+        pstmt.setInt(index + 4, (chunkZ << 4) + 16);
+    }
+
+    private void setLocation(PreparedStatement pstmt, int index, Location location) throws SQLException {
+        pstmt.setString(index, location.getWorld().getName());
+        pstmt.setDouble(index + 1, location.getX());
+        pstmt.setDouble(index + 2, location.getY());
+        pstmt.setDouble(index + 3, location.getZ());
+    }
+
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,799 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Local SQLite file, the default backend.
+// One write connection for the writer thread and one query-only connection per reader thread, all in WAL mode.
+public class SQLiteBackend implements StorageBackend {
+    // Bump when the schema changes and add a step to migrate()
+    // Package-private so StorageTool can check a file without loading this class
+    static final int SCHEMA_VERSION = 7;
+
+    private final ArmorStandStorage plugin;
+    private final File file;
+    private final ItemCodec codec;
+    private final SQLiteMaintenance maintenance;
+    private final List<DatabaseConnection> connections = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<DatabaseConnection> readConnection = ThreadLocal.withInitial(this::openReadConnection);
+    private DatabaseConnection writeConnection;
+
+    // Progress and numbers for the background conversion of Base64 rows (writer thread only)
+    private long legacyCursor;
+    private long legacyRows;
+    private long legacyBytes;
+    private long encodedBytes;
+    private long legacyDecodeNanos;
+    private long encodeNanos;
+    private long decodeNanos;
+
+    public SQLiteBackend(ArmorStandStorage plugin, File file, ItemCodec codec) {
+        this.plugin = plugin;
+        this.file = file;
+        this.codec = codec;
+        this.maintenance = new SQLiteMaintenance(codec);
+    }
+
+    @Override
+    public void open() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        writeConnection = openConnection();
+        // WAL survives restarts, it only has to be switched on by the writer
+        writeConnection.execute("PRAGMA journal_mode = WAL");
+        migrate(writeConnection);
+    }
+
+    private DatabaseConnection openConnection() throws SQLException {
+        DatabaseConnection connection = new DatabaseConnection(
+                DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath()));
+        // NORMAL is durable in WAL mode except for the last commits on power loss
+        connection.execute("PRAGMA synchronous = NORMAL");
+        connection.execute("PRAGMA busy_timeout = 5000");
+        connection.execute("PRAGMA cache_size = -16384");
+        connection.execute("PRAGMA mmap_size = 268435456");
+        connection.execute("PRAGMA temp_store = MEMORY");
+        connections.add(connection);
+        return connection;
+    }
+
+    private DatabaseConnection openReadConnection() {
+        try {
+            DatabaseConnection connection = openConnection();
+            connection.execute("PRAGMA query_only = ON");
+            return connection;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open a database read connection", e);
+        }
+    }
+
+    private void migrate(DatabaseConnection connection) throws Exception {
+        int version = getSchemaVersion(connection);
+        if (version >= SCHEMA_VERSION) {
+            return;
+        }
+
+        plugin.getLogger().info("Upgrading database schema from version " + version + " to " + SCHEMA_VERSION + "...");
+        boolean compact = connection.inTransaction(transaction -> {
+            boolean rebuilt = false;
+            if (version < 2) {
+                rebuilt = migrateToUuidKeys(transaction);
+            }
+            if (version < 3) {
+                // Binary inventories, the old TEXT column is cleared as rows get converted
+                transaction.execute("ALTER TABLE armor_stands ADD COLUMN contents BLOB");
+            }
+            if (version < 4) {
+                // One row per occupied slot so a save only touches the slots that changed.
+                // Inventories stored whole are split into slots the first time they are saved.
+                transaction.execute("CREATE TABLE armor_stand_slots (" +
+                        "stand_id INTEGER NOT NULL," +
+                        "slot INTEGER NOT NULL," +
+                        "item BLOB NOT NULL," +
+                        "PRIMARY KEY (stand_id, slot)" +
+                        ") WITHOUT ROWID");
+            }
+            if (version < 5) {
+                rebuilt |= migrateToItemStore(transaction);
+            }
+            if (version < 6) {
+                // Set (in epoch millis) when the stand was found missing from its chunk, see OrphanSweeper
+                transaction.execute("ALTER TABLE armor_stands ADD COLUMN orphaned_at INTEGER");
+                transaction.execute("CREATE INDEX idx_armor_stands_orphaned ON armor_stands (orphaned_at) WHERE orphaned_at IS NOT NULL");
+            }
+            if (version < 7) {
+                // Search keys per distinct item, see ItemIndex. Existing items are indexed in the background.
+                transaction.execute("ALTER TABLE armor_stand_items ADD COLUMN indexed INTEGER NOT NULL DEFAULT 0");
+                transaction.execute("CREATE INDEX idx_armor_stand_items_unindexed ON armor_stand_items (hash) WHERE indexed = 0");
+                transaction.execute("CREATE TABLE armor_stand_item_keys (" +
+                        "item_key TEXT NOT NULL," +
+                        "hash BLOB NOT NULL," +
+                        "PRIMARY KEY (item_key, hash)" +
+                        ") WITHOUT ROWID");
+                // Inventories still stored whole are split into slots in the background so they can be found too
+                transaction.execute("CREATE INDEX idx_armor_stands_whole ON armor_stands (id) WHERE contents IS NOT NULL");
+            }
+            transaction.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            return rebuilt;
+        });
+
+        if (compact) {
+            // Give the space used by duplicate rows back to the file system
+            connection.execute("VACUUM");
+        }
+        plugin.getLogger().info("Database schema is now at version " + SCHEMA_VERSION);
+    }
+
+    // Returns true when an existing table was rebuilt and is worth compacting
+    private boolean migrateToUuidKeys(DatabaseConnection connection) throws SQLException {
+        boolean legacyTable = tableExists(connection, "armor_stands");
+
+        // Rows are keyed by the entity UUID, location stays as an indexed lookup column.
+        // Rows carried over from the old table have no UUID until their stand is seen again.
+        connection.execute("CREATE TABLE armor_stands_v2 (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "uuid TEXT UNIQUE," +
+                "world TEXT NOT NULL," +
+                "x DOUBLE NOT NULL," +
+                "y DOUBLE NOT NULL," +
+                "z DOUBLE NOT NULL," +
+                "inventory TEXT," +
+                "registered_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+
+        if (legacyTable) {
+            // Keep one row per location: the newest one that has contents, otherwise the newest
+            connection.execute("INSERT INTO armor_stands_v2 (world, x, y, z, inventory, registered_at) " +
+                    "SELECT world, x, y, z, inventory, registered_at FROM (" +
+                    "SELECT *, ROW_NUMBER() OVER (PARTITION BY world, x, y, z " +
+                    "ORDER BY inventory IS NULL, id DESC) AS row_rank FROM armor_stands" +
+                    ") WHERE row_rank = 1");
+            connection.execute("DROP TABLE armor_stands");
+        }
+
+        connection.execute("ALTER TABLE armor_stands_v2 RENAME TO armor_stands");
+        connection.execute("CREATE INDEX idx_armor_stands_location ON armor_stands (world, x, y, z)");
+        // Rows without a UUID can only be told apart by location, so that must stay unique
+        connection.execute("CREATE UNIQUE INDEX idx_armor_stands_legacy ON armor_stands (world, x, y, z) WHERE uuid IS NULL");
+        return legacyTable;
+    }
+
+    // Every distinct item is stored once in armor_stand_items, slots refer to it by content hash.
+    // Returns true when existing slots were moved over and the file is worth compacting.
+    private boolean migrateToItemStore(DatabaseConnection connection) throws SQLException {
+        connection.execute("CREATE TABLE armor_stand_items (" +
+                "hash BLOB PRIMARY KEY," +
+                "data BLOB NOT NULL" +
+                ") WITHOUT ROWID");
+        connection.execute("CREATE TABLE armor_stand_slots_v5 (" +
+                "stand_id INTEGER NOT NULL," +
+                "slot INTEGER NOT NULL," +
+                "item_hash BLOB NOT NULL," +
+                "PRIMARY KEY (stand_id, slot)" +
+                ") WITHOUT ROWID");
+
+        int moved = 0;
+        PreparedStatement insert = connection.prepare("INSERT INTO armor_stand_slots_v5 (stand_id, slot, item_hash) VALUES (?, ?, ?)");
+        try (Statement stmt = connection.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT stand_id, slot, item FROM armor_stand_slots")) {
+            while (rs.next()) {
+                insert.setLong(1, rs.getLong("stand_id"));
+                insert.setInt(2, rs.getInt("slot"));
+                insert.setBytes(3, storeItem(connection, rs.getBytes("item")));
+                insert.executeUpdate();
+                moved++;
+            }
+        }
+
+        connection.execute("DROP TABLE armor_stand_slots");
+        connection.execute("ALTER TABLE armor_stand_slots_v5 RENAME TO armor_stand_slots");
+        // Lets collectItems find items without references without scanning every slot
+        connection.execute("CREATE INDEX idx_armor_stand_slots_item ON armor_stand_slots (item_hash)");
+        return moved > 0;
+    }
+
+    private int getSchemaVersion(DatabaseConnection connection) throws SQLException {
+        try (Statement stmt = connection.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private boolean tableExists(DatabaseConnection connection, String table) throws SQLException {
+        PreparedStatement pstmt = connection.prepare("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?");
+        pstmt.setString(1, table);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    @Override
+    public void registerArmorStands(Collection<StandRecord> stands) throws Exception {
+        writeConnection.inTransaction(transaction -> {
+            // Claim rows from before UUIDs were stored, then insert whatever is still missing. A stand that
+            // is already stored was not found in its chunk, so it was moved or flagged as gone: take the new location.
+            PreparedStatement adoptStmt = transaction.prepare("UPDATE armor_stands SET uuid = ? WHERE uuid IS NULL " +
+                    "AND world = ? AND x = ? AND y = ? AND z = ? AND NOT EXISTS (SELECT 1 FROM armor_stands WHERE uuid = ?)");
+            PreparedStatement insertStmt = transaction.prepare("INSERT INTO armor_stands (uuid, world, x, y, z) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (uuid) DO UPDATE SET world = excluded.world, x = excluded.x, y = excluded.y, z = excluded.z, " +
+                    "orphaned_at = NULL");
+            for (StandRecord stand : stands) {
+                String id = stand.getId().toString();
+                adoptStmt.setString(1, id);
+                setLocation(adoptStmt, 2, stand.getLocation());
+                adoptStmt.setString(6, id);
+                adoptStmt.addBatch();
+
+                insertStmt.setString(1, id);
+                setLocation(insertStmt, 2, stand.getLocation());
+                insertStmt.addBatch();
+            }
+            adoptStmt.executeBatch();
+            insertStmt.executeBatch();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isRegistered(UUID id, Location location) throws Exception {
+        PreparedStatement pstmt = readConnection.get().prepare("SELECT id FROM armor_stands WHERE uuid = ? " +
+                "OR (uuid IS NULL AND world = ? AND x = ? AND y = ? AND z = ?) LIMIT 1");
+        pstmt.setString(1, id.toString());
+        setLocation(pstmt, 2, location);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    @Override
+    public Collection<UUID> getArmorStandsInChunk(String world, int chunkX, int chunkZ) throws Exception {
+        PreparedStatement pstmt = readConnection.get().prepare("SELECT uuid FROM armor_stands WHERE world = ? " +
+                "AND x >= ? AND x < ? AND z >= ? AND z < ? AND uuid IS NOT NULL AND orphaned_at IS NULL");
+        setChunk(pstmt, 1, world, chunkX, chunkZ);
+        List<UUID> ids = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(UUID.fromString(rs.getString(1)));
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void readStoredChunks(ChunkConsumer consumer) throws Exception {
+        try (Statement stmt = readConnection.get().getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT world, x, z FROM armor_stands WHERE uuid IS NOT NULL AND orphaned_at IS NULL")) {
+            while (rs.next()) {
+                consumer.accept(rs.getString(1), (int) Math.floor(rs.getDouble(2)) >> 4, (int) Math.floor(rs.getDouble(3)) >> 4);
+            }
+        }
+    }
+
+    @Override
+    public int markOrphans(String world, int chunkX, int chunkZ, Collection<UUID> ids) throws Exception {
+        return writeConnection.inTransaction(transaction -> {
+            PreparedStatement pstmt = transaction.prepare("UPDATE armor_stands SET orphaned_at = ? WHERE world = ? " +
+                    "AND x >= ? AND x < ? AND z >= ? AND z < ? AND uuid = ? AND orphaned_at IS NULL");
+            long now = System.currentTimeMillis();
+            int flagged = 0;
+            for (UUID id : ids) {
+                pstmt.setLong(1, now);
+                setChunk(pstmt, 2, world, chunkX, chunkZ);
+                pstmt.setString(7, id.toString());
+                flagged += pstmt.executeUpdate();
+            }
+            return flagged;
+        });
+    }
+
+    @Override
+    public Collection<UUID> purgeOrphans(long flaggedBefore, int limit) throws Exception {
+        return writeConnection.inTransaction(transaction -> {
+            PreparedStatement pstmt = transaction.prepare("SELECT id, uuid FROM armor_stands WHERE orphaned_at < ? LIMIT ?");
+            pstmt.setLong(1, flaggedBefore);
+            pstmt.setInt(2, limit);
+            List<Long> rows = new ArrayList<>();
+            List<UUID> ids = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getLong("id"));
+                    ids.add(UUID.fromString(rs.getString("uuid")));
+                }
+            }
+
+            PreparedStatement slots = transaction.prepare("DELETE FROM armor_stand_slots WHERE stand_id = ?");
+            PreparedStatement stands = transaction.prepare("DELETE FROM armor_stands WHERE id = ?");
+            for (long rowId : rows) {
+                slots.setLong(1, rowId);
+                slots.executeUpdate();
+                stands.setLong(1, rowId);
+                stands.executeUpdate();
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    public boolean removeArmorStand(UUID id, Location location) throws Exception {
+        return writeConnection.inTransaction(transaction -> {
+            PreparedStatement pstmt = transaction.prepare("DELETE FROM armor_stand_slots WHERE stand_id IN (" +
+                    "SELECT id FROM armor_stands WHERE uuid = ? OR (uuid IS NULL AND world = ? AND x = ? AND y = ? AND z = ?))");
+            pstmt.setString(1, id.toString());
+            setLocation(pstmt, 2, location);
+            pstmt.executeUpdate();
+
+            pstmt = transaction.prepare("DELETE FROM armor_stands WHERE uuid = ? " +
+                    "OR (uuid IS NULL AND world = ? AND x = ? AND y = ? AND z = ?)");
+            pstmt.setString(1, id.toString());
+            setLocation(pstmt, 2, location);
+            return pstmt.executeUpdate() > 0;
+        });
+    }
+
+    @Override
+    public void saveInventories(Map<StandRecord, Map<Integer, byte[]>> inventories) throws Exception {
+        writeConnection.inTransaction(transaction -> {
+            for (Map.Entry<StandRecord, Map<Integer, byte[]>> entry : inventories.entrySet()) {
+                writeSlots(transaction, entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    private void writeSlots(DatabaseConnection connection, StandRecord stand, Map<Integer, byte[]> changes) throws Exception {
+        long rowId = findRow(connection, stand.getId(), stand.getLocation());
+        if (rowId == -1) {
+            // Not registered yet
+            insertRow(connection, stand.getId(), stand.getLocation());
+            rowId = findRow(connection, stand.getId(), stand.getLocation());
+        } else if (stand.getChangedSlots() == null) {
+            PreparedStatement pstmt = connection.prepare("DELETE FROM armor_stand_slots WHERE stand_id = ?");
+            pstmt.setLong(1, rowId);
+            pstmt.executeUpdate();
+        } else {
+            splitWholeInventory(connection, rowId);
+        }
+
+        PreparedStatement upsert = connection.prepare("INSERT INTO armor_stand_slots (stand_id, slot, item_hash) VALUES (?, ?, ?) " +
+                "ON CONFLICT (stand_id, slot) DO UPDATE SET item_hash = excluded.item_hash");
+        PreparedStatement delete = connection.prepare("DELETE FROM armor_stand_slots WHERE stand_id = ? AND slot = ?");
+        for (Map.Entry<Integer, byte[]> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                upsert.setLong(1, rowId);
+                upsert.setInt(2, change.getKey());
+                upsert.setBytes(3, storeItem(connection, change.getValue()));
+                upsert.executeUpdate();
+            } else if (stand.getChangedSlots() != null) {
+                delete.setLong(1, rowId);
+                delete.setInt(2, change.getKey());
+                delete.executeUpdate();
+            }
+        }
+
+        // The slots hold the contents now. Stands can be moved, so keep the location column current as well
+        PreparedStatement pstmt = connection.prepare("UPDATE armor_stands SET contents = NULL, inventory = NULL, " +
+                "orphaned_at = NULL, world = ?, x = ?, y = ?, z = ? WHERE id = ?");
+        setLocation(pstmt, 1, stand.getLocation());
+        pstmt.setLong(5, rowId);
+        pstmt.executeUpdate();
+    }
+
+    // Moves contents still stored as a single value into slot rows, so that single slots can be changed
+    private void splitWholeInventory(DatabaseConnection connection, long rowId) throws Exception {
+        PreparedStatement pstmt = connection.prepare("SELECT contents, inventory FROM armor_stands WHERE id = ?");
+        pstmt.setLong(1, rowId);
+        byte[] data;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                return;
+            }
+            data = rs.getBytes("contents");
+            String legacyData = rs.getString("inventory");
+            if (data == null && legacyData != null && !legacyData.isEmpty()) {
+                data = codec.encode(deserializeItems(legacyData));
+            }
+        }
+        if (data == null) {
+            return;
+        }
+
+        PreparedStatement insert = connection.prepare("INSERT OR REPLACE INTO armor_stand_slots (stand_id, slot, item_hash) VALUES (?, ?, ?)");
+        for (Map.Entry<Integer, byte[]> item : codec.split(data).entrySet()) {
+            insert.setLong(1, rowId);
+            insert.setInt(2, item.getKey());
+            insert.setBytes(3, storeItem(connection, item.getValue()));
+            insert.executeUpdate();
+        }
+    }
+
+    // Stores a serialized item unless an identical one is stored already, returns the hash to refer to it by
+    private byte[] storeItem(DatabaseConnection connection, byte[] item) throws SQLException {
+        byte[] hash = ItemCodec.hash(item);
+        PreparedStatement pstmt = connection.prepare("INSERT OR IGNORE INTO armor_stand_items (hash, data) VALUES (?, ?)");
+        pstmt.setBytes(1, hash);
+        pstmt.setBytes(2, item);
+        pstmt.executeUpdate();
+        return hash;
+    }
+
+    // Finds the row for a stand, claiming a pre-UUID row at the same location if that is all there is
+    private long findRow(DatabaseConnection connection, UUID id, Location location) throws SQLException {
+        PreparedStatement pstmt = connection.prepare("SELECT id FROM armor_stands WHERE uuid = ?");
+        pstmt.setString(1, id.toString());
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+
+        long rowId = -1;
+        pstmt = connection.prepare("SELECT id FROM armor_stands WHERE uuid IS NULL AND world = ? AND x = ? AND y = ? AND z = ?");
+        setLocation(pstmt, 1, location);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                rowId = rs.getLong(1);
+            }
+        }
+        if (rowId != -1) {
+            pstmt = connection.prepare("UPDATE armor_stands SET uuid = ? WHERE id = ?");
+            pstmt.setString(1, id.toString());
+            pstmt.setLong(2, rowId);
+            pstmt.executeUpdate();
+        }
+        return rowId;
+    }
+
+    private void insertRow(DatabaseConnection connection, UUID id, Location location) throws SQLException {
+        PreparedStatement pstmt = connection.prepare("INSERT OR IGNORE INTO armor_stands (uuid, world, x, y, z) VALUES (?, ?, ?, ?, ?)");
+        pstmt.setString(1, id.toString());
+        setLocation(pstmt, 2, location);
+        pstmt.executeUpdate();
+    }
+
+    // World and block bounds of a chunk, for the location index
+    private void setChunk(PreparedStatement pstmt, int index, String world, int chunkX, int chunkZ) throws SQLException {
+        pstmt.setString(index, world);
+        pstmt.setInt(index + 1, chunkX << 4);
+        pstmt.setInt(index + 2, (chunkX << 4) + 16);
+        pstmt.setInt(index + 3, chunkZ << 4);
+        pstmt.setInt(index + 4, (chunkZ << 4) + 16);
+    }
+
+    private void setLocation(PreparedStatement pstmt, int index, Location location) throws SQLException {
+        pstmt.setString(index, location.getWorld().getName());
+        pstmt.setDouble(index + 1, location.getX());
+        pstmt.setDouble(index + 2, location.getY());
+        pstmt.setDouble(index + 3, location.getZ());
+    }
+
+    @Override
+    public byte[] loadInventory(UUID id, Location location) throws Exception {
+        return loadInventory(readConnection.get(), id, location);
+    }
+
+    @Override
+    public Map<UUID, byte[]> loadInventories(Collection<UUID> ids) throws Exception {
+        return readConnection.get().inTransaction(transaction -> {
+            Map<UUID, byte[]> inventories = new LinkedHashMap<>();
+            for (UUID id : ids) {
+                byte[] data = loadInventory(transaction, id, null);
+                if (data != null) {
+                    inventories.put(id, data);
+                }
+            }
+            return inventories;
+        });
+    }
+
+    // Without a location only the UUID row is looked at
+    private byte[] loadInventory(DatabaseConnection connection, UUID id, Location location) throws Exception {
+        PreparedStatement pstmt;
+        if (location == null) {
+            pstmt = connection.prepare("SELECT id, contents, inventory FROM armor_stands WHERE uuid = ?");
+            pstmt.setString(1, id.toString());
+        } else {
+            // Prefer the UUID row, fall back to a row from before stands were tracked by UUID
+            pstmt = connection.prepare("SELECT id, contents, inventory FROM armor_stands WHERE uuid = ? " +
+                    "OR (uuid IS NULL AND world = ? AND x = ? AND y = ? AND z = ?) ORDER BY uuid IS NULL LIMIT 1");
+            pstmt.setString(1, id.toString());
+            setLocation(pstmt, 2, location);
+        }
+
+        long rowId;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            rowId = rs.getLong("id");
+            byte[] data = rs.getBytes("contents");
+            String legacyData = rs.getString("inventory");
+            if (data == null && legacyData != null && !legacyData.isEmpty()) {
+                // Still in the old Base64 format. Convert it in memory,
+                // the row itself is rewritten by the background pass or the next save.
+                data = codec.encode(deserializeItems(legacyData));
+            }
+            if (data != null) {
+                return data;
+            }
+        }
+
+        // Stored per slot, put the inventory back together
+        pstmt = connection.prepare("SELECT s.slot, i.data FROM armor_stand_slots s " +
+                "JOIN armor_stand_items i ON i.hash = s.item_hash WHERE s.stand_id = ?");
+        pstmt.setLong(1, rowId);
+        Map<Integer, byte[]> items = new TreeMap<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                items.put(rs.getInt("slot"), rs.getBytes("data"));
+            }
+        }
+        return items.isEmpty() ? null : codec.assemble(items);
+    }
+
+    @Override
+    public int countInventories() throws Exception {
+        PreparedStatement pstmt = readConnection.get().prepare("SELECT COUNT(*) FROM armor_stands " +
+                "WHERE contents IS NOT NULL OR inventory IS NOT NULL " +
+                "OR EXISTS (SELECT 1 FROM armor_stand_slots WHERE stand_id = armor_stands.id)");
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    @Override
+    public int collectItems() throws Exception {
+        // Only the writer thread adds references, so no item can gain one between the check and the delete
+        return writeConnection.inTransaction(transaction -> {
+            int removed = transaction.prepare("DELETE FROM armor_stand_items WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM armor_stand_slots WHERE item_hash = armor_stand_items.hash)").executeUpdate();
+            if (removed > 0) {
+                SQLiteMaintenance.deleteStrayKeys(transaction);
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public int indexItems(int limit) throws Exception {
+        return writeConnection.inTransaction(transaction -> {
+            // Whole inventories first, their items only get into armor_stand_items once split into slots
+            PreparedStatement whole = transaction.prepare("SELECT id FROM armor_stands WHERE contents IS NOT NULL LIMIT ?");
+            whole.setInt(1, limit);
+            List<Long> rows = new ArrayList<>();
+            try (ResultSet rs = whole.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getLong(1));
+                }
+            }
+            PreparedStatement clear = transaction.prepare("UPDATE armor_stands SET contents = NULL, inventory = NULL WHERE id = ?");
+            for (long rowId : rows) {
+                splitWholeInventory(transaction, rowId);
+                clear.setLong(1, rowId);
+                clear.executeUpdate();
+            }
+
+            PreparedStatement pstmt = transaction.prepare("SELECT hash, data FROM armor_stand_items WHERE indexed = 0 LIMIT ?");
+            pstmt.setInt(1, limit);
+            Map<byte[], byte[]> items = new LinkedHashMap<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.put(rs.getBytes("hash"), rs.getBytes("data"));
+                }
+            }
+            PreparedStatement key = transaction.prepare("INSERT OR IGNORE INTO armor_stand_item_keys (item_key, hash) VALUES (?, ?)");
+            PreparedStatement indexed = transaction.prepare("UPDATE armor_stand_items SET indexed = 1 WHERE hash = ?");
+            for (Map.Entry<byte[], byte[]> item : items.entrySet()) {
+                for (String itemKey : keys(item.getValue())) {
+                    key.setString(1, itemKey);
+                    key.setBytes(2, item.getKey());
+                    key.executeUpdate();
+                }
+                indexed.setBytes(1, item.getKey());
+                indexed.executeUpdate();
+            }
+            return items.size();
+        });
+    }
+
+    // Search keys of a stored item, none if it can't be read on this server
+    private Collection<String> keys(byte[] item) {
+        try {
+            return ItemIndex.keys(ItemStack.deserializeBytes(item));
+        } catch (Exception e) {
+            plugin.getLogger().warning("Could not read a stored item to index it: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<ItemMatch> findItems(String key, int offset, int limit) throws Exception {
+        PreparedStatement pstmt = readConnection.get().prepare("SELECT a.uuid, a.world, a.x, a.y, a.z, COUNT(*) AS slots " +
+                "FROM armor_stand_item_keys k JOIN armor_stand_slots s ON s.item_hash = k.hash " +
+                "JOIN armor_stands a ON a.id = s.stand_id WHERE k.item_key = ? AND a.orphaned_at IS NULL " +
+                "GROUP BY a.id ORDER BY a.id LIMIT ? OFFSET ?");
+        pstmt.setString(1, key);
+        pstmt.setInt(2, limit);
+        pstmt.setInt(3, offset);
+        List<ItemMatch> matches = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String uuid = rs.getString("uuid");
+                matches.add(new ItemMatch(uuid == null ? null : UUID.fromString(uuid), rs.getString("world"),
+                        rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"), rs.getInt("slots")));
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public int exportInventories(StorageArchive.Writer out) throws Exception {
+        // Called on a thread of its own, so this is a read connection nothing else is using
+        int written = maintenance.export(readConnection.get(), out);
+        if (maintenance.getSkippedLegacy() > 0) {
+            plugin.getLogger().warning(maintenance.getSkippedLegacy() + " inventories still in the old format were not exported, " +
+                    "export again once the format conversion has finished");
+        }
+        return written;
+    }
+
+    @Override
+    public void importInventories(Collection<StorageArchive.Entry> entries) throws Exception {
+        maintenance.importEntries(writeConnection, entries);
+    }
+
+    // VACUUM INTO on a connection of its own: it reads one snapshot, so in WAL mode the writer keeps
+    // committing the whole time and the copy comes out consistent and without free pages. The online
+    // backup API would start over from the first page every time the writer commits.
+    @Override
+    public boolean backup(File target) throws Exception {
+        DatabaseConnection connection = new DatabaseConnection(
+                DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath()));
+        try {
+            connection.execute("PRAGMA busy_timeout = 5000");
+            // Only reads from this file, the cache is for the copy
+            connection.execute("PRAGMA cache_size = -16384");
+            try (PreparedStatement pstmt = connection.getConnection().prepareStatement("VACUUM INTO ?")) {
+                pstmt.setString(1, target.getAbsolutePath());
+                pstmt.execute();
+            }
+            return true;
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String compact() throws Exception {
+        return maintenance.compact(writeConnection);
+    }
+
+    private boolean convertLegacyRow(DatabaseConnection connection, long rowId, byte[] data) throws SQLException {
+        // Skip rows that got new contents in the meantime
+        PreparedStatement pstmt = connection.prepare("UPDATE armor_stands SET contents = ?, inventory = NULL " +
+                "WHERE id = ? AND contents IS NULL");
+        pstmt.setBytes(1, data);
+        pstmt.setLong(2, rowId);
+        return pstmt.executeUpdate() > 0;
+    }
+
+    @Override
+    public int migrateLegacyInventories(int batchSize) throws Exception {
+        return writeConnection.inTransaction(transaction -> {
+            PreparedStatement pstmt = transaction.prepare("SELECT id, inventory FROM armor_stands WHERE id > ? " +
+                    "AND contents IS NULL AND inventory IS NOT NULL ORDER BY id LIMIT ?");
+            pstmt.setLong(1, legacyCursor);
+            pstmt.setInt(2, batchSize);
+
+            List<Long> ids = new ArrayList<>();
+            List<String> rows = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong("id"));
+                    rows.add(rs.getString("inventory"));
+                }
+            }
+
+            for (int i = 0; i < ids.size(); i++) {
+                legacyCursor = ids.get(i);
+                String legacyData = rows.get(i);
+                try {
+                    long start = System.nanoTime();
+                    ItemStack[] items = deserializeItems(legacyData);
+                    long decoded = System.nanoTime();
+                    byte[] data = codec.encode(items);
+                    long encoded = System.nanoTime();
+                    codec.decode(data);
+                    long verified = System.nanoTime();
+
+                    convertLegacyRow(transaction, legacyCursor, data);
+                    legacyRows++;
+                    legacyBytes += legacyData.length();
+                    encodedBytes += data.length;
+                    legacyDecodeNanos += decoded - start;
+                    encodeNanos += encoded - decoded;
+                    decodeNanos += verified - encoded;
+                } catch (Exception e) {
+                    // Leave unreadable rows alone, the cursor moves past them
+                    plugin.getLogger().warning("Could not convert inventory row " + legacyCursor + ": " + e.getMessage());
+                }
+            }
+            return ids.size();
+        });
+    }
+
+    @Override
+    public String getLegacyMigrationSummary() {
+        if (legacyRows == 0) {
+            return null;
+        }
+        return String.format("%d rows converted, %.1f -> %.1f bytes/row (%.0f%%), " +
+                        "decode %.1f -> %.1f us/row, encode %.1f us/row",
+                legacyRows,
+                (double) legacyBytes / legacyRows, (double) encodedBytes / legacyRows,
+                100.0 * encodedBytes / legacyBytes,
+                legacyDecodeNanos / 1000.0 / legacyRows, decodeNanos / 1000.0 / legacyRows,
+                encodeNanos / 1000.0 / legacyRows);
+    }
+
+    // Reads the old BukkitObjectOutputStream + Base64 format
+    private ItemStack[] deserializeItems(String data) throws Exception {
+        if (data == null || data.isEmpty()) {
+            return new ItemStack[27]; // Return empty array with correct size
+        }
+
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64.getDecoder().decode(data));
+        BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream);
+
+        int size = dataInput.readInt();
+        Map<Integer, ItemStack> read = new TreeMap<>();
+        int slots = 27;
+
+        // Read items into their exact positions, inventories with more rows keep their higher slots
+        for (int i = 0; i < size; i++) {
+            int slot = dataInput.readInt(); // Read the slot number
+            ItemStack item = (ItemStack) dataInput.readObject();
+            if (slot >= ArmorStandStorage.MAX_CAPACITY) {
+                // No storage is that big, the row is corrupt and would ask for a huge array
+                throw new IOException("Slot " + slot + " is beyond the largest storage of " + ArmorStandStorage.MAX_CAPACITY + " slots");
+            }
+            if (slot >= 0) {
+                read.put(slot, item);
+                slots = Math.max(slots, slot + 1);
+            }
+        }
+
+        dataInput.close();
+        ItemStack[] items = new ItemStack[slots];
+        for (Map.Entry<Integer, ItemStack> entry : read.entrySet()) {
+            items[entry.getKey()] = entry.getValue();
+        }
+        return items;
+    }
+
+    @Override
+    public void close() {
+        for (DatabaseConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package com.koopacraft.armorstandstorage;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+// Export, import and compaction of the SQLite schema. Works on plain JDBC without the Bukkit API,
+// so SQLiteBackend and StorageTool share it.
+public class SQLiteMaintenance {
+    private final ItemCodec codec;
+    // Rows looked at by the last export that were still in the old Base64 format
+    private int skippedLegacy;
+
+    public SQLiteMaintenance(ItemCodec codec) {
+        this.codec = codec;
+    }
+
+    // Streams every stand to the archive, one row at a time. Rows still in the Base64 format need the
+    // server to be read and are left out, they are converted in the background after startup.
+    public int export(DatabaseConnection connection, StorageArchive.Writer out) throws SQLException, IOException {
+        skippedLegacy = 0;
+        // Stands come in id order with their slots right after them, so no sorting and nothing held back
+        String sql = "SELECT a.id, a.uuid, a.world, a.x, a.y, a.z, a.contents, a.inventory, s.slot, i.data " +
+                "FROM armor_stands a LEFT JOIN armor_stand_slots s ON s.stand_id = a.id " +
+                "LEFT JOIN armor_stand_items i ON i.hash = s.item_hash ORDER BY a.id";
+        try (Statement stmt = connection.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            long current = -1;
+            StorageArchive.Entry entry = null;
+            while (rs.next()) {
+                long rowId = rs.getLong("id");
+                if (rowId != current) {
+                    if (entry != null) {
+                        out.write(entry);
+                    }
+                    current = rowId;
+                    entry = readStand(rs);
+                }
+                byte[] item = rs.getBytes("data");
+                if (entry != null && item != null) {
+                    entry.getSlots().put(rs.getInt("slot"), item);
+                }
+            }
+            if (entry != null) {
+                out.write(entry);
+            }
+        }
+        return out.getWritten();
+    }
+
+    // The stand of the current row with its whole stored inventory, null if it can only be read with the server
+    private StorageArchive.Entry readStand(ResultSet rs) throws SQLException, IOException {
+        String uuid = rs.getString("uuid");
+        byte[] contents = rs.getBytes("contents");
+        String legacy = rs.getString("inventory");
+        Map<Integer, byte[]> slots = new TreeMap<>();
+        if (contents != null) {
+            slots.putAll(codec.split(contents));
+        } else if (legacy != null && !legacy.isEmpty()) {
+            skippedLegacy++;
+            return null;
+        }
+        return new StorageArchive.Entry(uuid == null ? null : UUID.fromString(uuid), rs.getString("world"),
+                rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"), slots);
+    }
+
+    public int getSkippedLegacy() {
+        return skippedLegacy;
+    }
+
+    // Stores the stands in one transaction, replacing whatever was stored for them
+    public void importEntries(DatabaseConnection connection, Collection<StorageArchive.Entry> entries) throws Exception {
+        connection.inTransaction(transaction -> {
+            PreparedStatement upsert = transaction.prepare("INSERT INTO armor_stands (uuid, world, x, y, z) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (uuid) DO UPDATE SET world = excluded.world, x = excluded.x, y = excluded.y, z = excluded.z, " +
+                    "contents = NULL, inventory = NULL, orphaned_at = NULL");
+            PreparedStatement findUuid = transaction.prepare("SELECT id FROM armor_stands WHERE uuid = ?");
+            PreparedStatement findLegacy = transaction.prepare("SELECT id FROM armor_stands WHERE uuid IS NULL " +
+                    "AND world = ? AND x = ? AND y = ? AND z = ?");
+            PreparedStatement insertLegacy = transaction.prepare("INSERT INTO armor_stands (world, x, y, z) VALUES (?, ?, ?, ?)");
+            PreparedStatement clearLegacy = transaction.prepare("UPDATE armor_stands SET contents = NULL, inventory = NULL WHERE id = ?");
+            PreparedStatement clearSlots = transaction.prepare("DELETE FROM armor_stand_slots WHERE stand_id = ?");
+            PreparedStatement insertSlot = transaction.prepare("INSERT INTO armor_stand_slots (stand_id, slot, item_hash) VALUES (?, ?, ?)");
+
+            for (StorageArchive.Entry entry : entries) {
+                long rowId;
+                if (entry.getId() != null) {
+                    upsert.setString(1, entry.getId().toString());
+                    setLocation(upsert, 2, entry);
+                    upsert.executeUpdate();
+                    findUuid.setString(1, entry.getId().toString());
+                    rowId = queryId(findUuid);
+                } else {
+                    setLocation(findLegacy, 1, entry);
+                    rowId = queryId(findLegacy);
+                    if (rowId == -1) {
+                        setLocation(insertLegacy, 1, entry);
+                        insertLegacy.executeUpdate();
+                        rowId = queryId(findLegacy);
+                    } else {
+                        clearLegacy.setLong(1, rowId);
+                        clearLegacy.executeUpdate();
+                    }
+                }
+
+                clearSlots.setLong(1, rowId);
+                clearSlots.executeUpdate();
+                for (Map.Entry<Integer, byte[]> slot : entry.getSlots().entrySet()) {
+                    insertSlot.setLong(1, rowId);
+                    insertSlot.setInt(2, slot.getKey());
+                    insertSlot.setBytes(3, storeItem(transaction, slot.getValue()));
+                    insertSlot.executeUpdate();
+                }
+            }
+            return null;
+        });
+    }
+
+    private static long queryId(PreparedStatement pstmt) throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private static void setLocation(PreparedStatement pstmt, int index, StorageArchive.Entry entry) throws SQLException {
+        pstmt.setString(index, entry.getWorld());
+        pstmt.setDouble(index + 1, entry.getX());
+        pstmt.setDouble(index + 2, entry.getY());
+        pstmt.setDouble(index + 3, entry.getZ());
+    }
+
+    private static byte[] storeItem(DatabaseConnection connection, byte[] item) throws SQLException {
+        byte[] hash = ItemCodec.hash(item);
+        PreparedStatement pstmt = connection.prepare("INSERT OR IGNORE INTO armor_stand_items (hash, data) VALUES (?, ?)");
+        pstmt.setBytes(1, hash);
+        pstmt.setBytes(2, item);
+        pstmt.executeUpdate();
+        return hash;
+    }
+
+    // Drops rows that can never be read, rewrites the file without free pages and empties the WAL.
+    // Must run on the connection that does all the writing. Returns a line for the log.
+    public String compact(DatabaseConnection connection) throws Exception {
+        long before = fileSize(connection);
+        int[] removed = connection.inTransaction(transaction -> {
+            // A row from before UUIDs at a location that has a UUID row too is never read again
+            int duplicates = delete(transaction, "DELETE FROM armor_stands WHERE uuid IS NULL AND EXISTS (" +
+                    "SELECT 1 FROM armor_stands b WHERE b.uuid IS NOT NULL AND b.world = armor_stands.world " +
+                    "AND b.x = armor_stands.x AND b.y = armor_stands.y AND b.z = armor_stands.z)");
+            // Slots of those and of any other row that is gone
+            int slots = delete(transaction, "DELETE FROM armor_stand_slots WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM armor_stands WHERE id = armor_stand_slots.stand_id)");
+            int items = delete(transaction, "DELETE FROM armor_stand_items WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM armor_stand_slots WHERE item_hash = armor_stand_items.hash)");
+            deleteStrayKeys(transaction);
+            return new int[]{duplicates, slots, items};
+        });
+
+        connection.execute("VACUUM");
+        connection.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        long after = fileSize(connection);
+        return String.format("removed %d duplicate stands, %d stray slots and %d unused items, %.1f MB -> %.1f MB",
+                removed[0], removed[1], removed[2], before / 1048576.0, after / 1048576.0);
+    }
+
+    // Search keys of items that were deleted
+    static void deleteStrayKeys(DatabaseConnection connection) throws SQLException {
+        delete(connection, "DELETE FROM armor_stand_item_keys WHERE NOT EXISTS (" +
+                "SELECT 1 FROM armor_stand_items WHERE hash = armor_stand_item_keys.hash)");
+    }
+
+    private static int delete(DatabaseConnection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.getConnection().createStatement()) {
+            return stmt.executeUpdate(sql);
+        }
+    }
+
+    private static long fileSize(DatabaseConnection connection) throws SQLException {
+        try (Statement stmt = connection.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT page_count * page_size FROM pragma_page_count(), pragma_page_size()")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
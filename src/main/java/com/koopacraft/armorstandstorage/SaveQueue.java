@@ -0,0 +1,213 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+public class SaveQueue {
+    // Times a stand may fail to save while others succeed before its queued changes are dropped
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final ArmorStandStorage plugin;
+    // Latest unsaved snapshot per armor stand, repeated saves are merged into the entry
+    private final Map<UUID, StandRecord> pending = new ConcurrentHashMap<>();
+    // Held while handing writes to the database so they reach it in order
+    private final Object writeLock = new Object();
+    // Failed saves per stand since it was last stored, see failed
+    private final Map<UUID, Integer> attempts = new ConcurrentHashMap<>();
+    private Scheduler.Task flushTask;
+
+    public SaveQueue(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start(long intervalTicks) {
+        flushTask = plugin.getScheduler().runAsyncTimer(task -> flush(), intervalTicks, intervalTicks);
+    }
+
+    // changedSlots is null when the whole inventory should be written
+    public void queueSave(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        StandRecord save = new StandRecord(armorStand, snapshot(contents), changedSlots);
+        pending.merge(save.getId(), save, SaveQueue::merge);
+    }
+
+    // Returns the newest changes that have not reached the database yet, or null.
+    // Only the changed slots of the contents are meaningful unless getChangedSlots() is null.
+    public StandRecord getPending(UUID id) {
+        StandRecord save = pending.get(id);
+        if (save == null) {
+            return null;
+        }
+        return new StandRecord(save.getId(), save.getLocation(), snapshot(save.getContents()), save.getChangedSlots());
+    }
+
+    // Starts writing the given contents right away, together with anything still queued for this stand.
+    // The entry stays visible to getPending until the write has finished.
+    public CompletableFuture<Boolean> saveNow(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        return saveAll(Collections.singletonList(new StandRecord(armorStand, contents, changedSlots)));
+    }
+
+    // Like saveNow for several stands, written in one transaction. Completes with false if it failed,
+    // in which case everything stays queued. The next flush then tries each stand on its own, so a stand
+    // that can't be stored doesn't keep the others out, and gives up on it after MAX_ATTEMPTS.
+    public CompletableFuture<Boolean> saveAll(Collection<StandRecord> stands) {
+        List<StandRecord> batch = new ArrayList<>(stands.size());
+        CompletableFuture<Boolean> write;
+        synchronized (writeLock) {
+            for (StandRecord stand : stands) {
+                StandRecord update = new StandRecord(stand.getId(), stand.getLocation(),
+                        snapshot(stand.getContents()), stand.getChangedSlots());
+                batch.add(pending.merge(update.getId(), update, SaveQueue::merge));
+            }
+            write = plugin.getDatabase().saveArmorStandsAsync(batch);
+        }
+        return write.whenComplete((stored, error) -> {
+            if (error != null || !Boolean.TRUE.equals(stored)) {
+                // The batch holds changes queued by others too, they stay queued for the next flush
+                plugin.getLogger().warning("Could not save " + batch.size() + " armor stand inventories, keeping them queued");
+                return;
+            }
+            for (StandRecord save : batch) {
+                attempts.remove(save.getId());
+                pending.remove(save.getId(), save);
+            }
+        });
+    }
+
+    // A newer save on top of one that has not been written yet: its slots win, and both sets of slots get written
+    static StandRecord merge(StandRecord older, StandRecord newer) {
+        if (newer.getChangedSlots() == null) {
+            return newer;
+        }
+
+        BitSet newerSlots = newer.getChangedSlots();
+        ItemStack[] contents = older.getContents();
+        int size = Math.max(contents.length, newer.getContents().length);
+        if (contents.length < size) {
+            contents = Arrays.copyOf(contents, size);
+        } else {
+            contents = contents.clone();
+        }
+        for (int i = newerSlots.nextSetBit(0); i >= 0; i = newerSlots.nextSetBit(i + 1)) {
+            if (i < size) {
+                contents[i] = i < newer.getContents().length ? newer.getContents()[i] : null;
+            }
+        }
+
+        BitSet changedSlots = null;
+        if (older.getChangedSlots() != null) {
+            changedSlots = (BitSet) older.getChangedSlots().clone();
+            changedSlots.or(newerSlots);
+        }
+        return new StandRecord(newer.getId(), newer.getLocation(), contents, changedSlots);
+    }
+
+    // Drops queued contents so they can't recreate a row that is being removed.
+    // Writes already handed to the database run before anything submitted after this returns.
+    public void discard(UUID id) {
+        synchronized (writeLock) {
+            pending.remove(id);
+            attempts.remove(id);
+        }
+    }
+
+    // Blocks until everything queued so far is stored, runs on the flush task and at shutdown.
+    // Stands that fail stay queued, see failed.
+    public void flush() {
+        List<StandRecord> batch;
+        CompletableFuture<Set<UUID>> write;
+        // Only submission needs the lock, the database writer runs tasks in the order they arrive
+        synchronized (writeLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            write = plugin.getDatabase().saveEachArmorStandAsync(batch);
+        }
+        Set<UUID> failedIds;
+        try {
+            failedIds = write.join();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save " + batch.size() + " armor stand inventories", e);
+            failedIds = null;
+        }
+        if (failedIds == null || failedIds.size() == batch.size()) {
+            // Nothing got in, more likely the database than the stands. Everything stays queued as it is.
+            plugin.getLogger().warning("Could not save " + batch.size() + " armor stand inventories, keeping them queued");
+            return;
+        }
+
+        // Keep entries that were replaced while we were writing, they go out with the next batch
+        for (StandRecord save : batch) {
+            if (failedIds.contains(save.getId())) {
+                failed(save);
+            } else {
+                attempts.remove(save.getId());
+                pending.remove(save.getId(), save);
+            }
+        }
+        plugin.debug("Flushed " + (batch.size() - failedIds.size()) + " armor stand inventories");
+    }
+
+    // A stand that couldn't be stored while others could. It stays queued for the next flush until it
+    // has failed MAX_ATTEMPTS times, then its changes are dropped so it can't hold back the queue forever.
+    private void failed(StandRecord save) {
+        int failures = attempts.merge(save.getId(), 1, Integer::sum);
+        if (failures < MAX_ATTEMPTS) {
+            plugin.getLogger().warning("Could not save armor stand " + save.getId() + " (attempt " + failures
+                    + " of " + MAX_ATTEMPTS + "), keeping it queued");
+            return;
+        }
+        // Replaced while we were writing, the newer entry goes on the next failure
+        if (pending.remove(save.getId(), save)) {
+            attempts.remove(save.getId());
+            plugin.getLogger().severe("Gave up saving armor stand " + save.getId() + " after " + MAX_ATTEMPTS
+                    + " attempts, its unsaved changes at " + ArmorStandListener.formatLocation(save.getLocation())
+                    + " are lost");
+        }
+    }
+
+    public void shutdown() {
+        stopTimer();
+        flush();
+    }
+
+    // Like shutdown, but the final flush runs off the calling thread so a server thread doesn't wait on the database
+    public CompletableFuture<Void> shutdownAsync() {
+        stopTimer();
+        return CompletableFuture.runAsync(this::flush);
+    }
+
+    private void stopTimer() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private static ItemStack[] snapshot(ItemStack[] contents) {
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null) {
+                copy[i] = contents[i].clone();
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,144 @@
+package com.koopacraft.armorstandstorage;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Runs tasks on the right thread for the server. On Folia every region has its own thread, so work
+// on an entity or chunk goes to the scheduler of the region that owns it and server-wide work to the
+// global region. On Paper all of those are the main thread and the Bukkit scheduler is used.
+public class Scheduler {
+    private final Plugin plugin;
+    private final boolean folia;
+
+    public interface Task {
+        void cancel();
+    }
+
+    public Scheduler(Plugin plugin) {
+        this.plugin = plugin;
+        this.folia = detectFolia();
+    }
+
+    private static boolean detectFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public boolean isFolia() {
+        return folia;
+    }
+
+    // Next tick on the thread that owns the entity. Dropped if the entity is removed before then.
+    public void runForEntity(Entity entity, Runnable task) {
+        runForEntity(entity, task, null);
+    }
+
+    // Like runForEntity, calling retired instead if the entity was removed before the task could run
+    public void runForEntity(Entity entity, Runnable task, Runnable retired) {
+        if (folia) {
+            entity.getScheduler().run(plugin, scheduled -> task.run(), retired);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Runs right away when the current thread owns the entity, otherwise next tick on the one that does
+    public void execute(Entity entity, Runnable task) {
+        if (!folia || Bukkit.isOwnedByCurrentRegion(entity)) {
+            task.run();
+        } else {
+            runForEntity(entity, task);
+        }
+    }
+
+    // Next tick on the thread that owns the location
+    public void runAtLocation(Location location, Runnable task) {
+        if (folia) {
+            Bukkit.getRegionScheduler().run(plugin, location, scheduled -> task.run());
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Next tick on the thread that owns the chunk
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        if (folia) {
+            Bukkit.getRegionScheduler().run(plugin, world, chunkX, chunkZ, scheduled -> task.run());
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Next tick for work that isn't tied to a place, e.g. the config
+    public void runGlobal(Runnable task) {
+        if (folia) {
+            Bukkit.getGlobalRegionScheduler().run(plugin, scheduled -> task.run());
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Every periodTicks on the global region, which ticks once per server tick on Folia too
+    public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        if (folia) {
+            ScheduledTask scheduled = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, ignored -> task.run(),
+                    Math.max(1, delayTicks), periodTicks);
+            return scheduled::cancel;
+        }
+        BukkitTask scheduled = Bukkit.getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks);
+        return scheduled::cancel;
+    }
+
+    // Every periodTicks off the server threads. The task can cancel itself through the Task it's given.
+    public Task runAsyncTimer(Consumer<Task> task, long delayTicks, long periodTicks) {
+        if (folia) {
+            ScheduledTask scheduled = Bukkit.getAsyncScheduler().runAtFixedRate(plugin, self -> task.accept(self::cancel),
+                    Math.max(1, delayTicks) * 50, periodTicks * 50, TimeUnit.MILLISECONDS);
+            return scheduled::cancel;
+        }
+        BukkitTask[] scheduled = new BukkitTask[1];
+        scheduled[0] = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin,
+                () -> task.accept(scheduled[0]::cancel), delayTicks, periodTicks);
+        return scheduled[0]::cancel;
+    }
+
+    // Calls the action for every chunk whose entities are loaded, on the thread that owns the chunk
+    // Must be called from the main thread, or the global region thread on Folia
+    public void forEachLoadedChunk(Consumer<Chunk> action) {
+        for (World world : Bukkit.getWorlds()) {
+            Chunk[] chunks;
+            try {
+                chunks = world.getLoadedChunks();
+            } catch (UnsupportedOperationException e) {
+                // Not available on Folia, stands there are picked up as their chunks load or get used
+                continue;
+            }
+            for (Chunk chunk : chunks) {
+                if (!folia) {
+                    if (chunk.isEntitiesLoaded()) {
+                        action.accept(chunk);
+                    }
+                    continue;
+                }
+                runAtChunk(world, chunk.getX(), chunk.getZ(), () -> {
+                    if (chunk.isEntitiesLoaded()) {
+                        action.accept(chunk);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.UUID;
+
+public class StandRecord {
+    private final UUID id;
+    private final Location location;
+    private final ItemStack[] contents;
+    private final BitSet changedSlots;
+
+    public StandRecord(UUID id, Location location, ItemStack[] contents) {
+        this(id, location, contents, null);
+    }
+
+    public StandRecord(UUID id, Location location, ItemStack[] contents, BitSet changedSlots) {
+        this.id = id;
+        this.location = location;
+        this.contents = contents;
+        this.changedSlots = changedSlots;
+    }
+
+    public StandRecord(ArmorStand armorStand, ItemStack[] contents) {
+        this(armorStand, contents, null);
+    }
+
+    public StandRecord(ArmorStand armorStand, ItemStack[] contents, BitSet changedSlots) {
+        this(armorStand.getUniqueId(), armorStand.getLocation(), contents, changedSlots);
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    // Null when only the stand itself is being registered
+    public ItemStack[] getContents() {
+        return contents;
+    }
+
+    // Slots that differ from what is stored, only these are written. Null means the whole inventory.
+    public BitSet getChangedSlots() {
+        return changedSlots;
+    }
+}
@@ -0,0 +1,158 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Which stands have a database row, bucketed by world and chunk. A chunk is tracked while its
+// entities are loaded: its bucket is filled from the database once, kept up to date as stands are
+// registered and removed, and dropped when the chunk unloads. Membership checks are a hash lookup
+// and a short scan, with no boxing and no database round trip.
+public class StandRegistry {
+    private final Map<UUID, LongObjectMap<Bucket>> worlds = new HashMap<>();
+    private int chunks;
+    private int stands;
+
+    // Stand ids of one chunk, stored as most/least significant bit pairs
+    private static class Bucket {
+        private long[] ids = new long[8];
+        private int size;
+        // Set once the chunk's rows were read, until then a missing id means nothing
+        private boolean loaded;
+
+        private int indexOf(long most, long least) {
+            for (int i = 0; i < size * 2; i += 2) {
+                if (ids[i] == most && ids[i + 1] == least) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean add(long most, long least) {
+            if (indexOf(most, least) >= 0) {
+                return false;
+            }
+            if (size * 2 == ids.length) {
+                long[] grown = new long[ids.length * 2];
+                System.arraycopy(ids, 0, grown, 0, ids.length);
+                ids = grown;
+            }
+            ids[size * 2] = most;
+            ids[size * 2 + 1] = least;
+            size++;
+            return true;
+        }
+
+        private boolean remove(long most, long least) {
+            int index = indexOf(most, least);
+            if (index < 0) {
+                return false;
+            }
+            size--;
+            ids[index] = ids[size * 2];
+            ids[index + 1] = ids[size * 2 + 1];
+            return true;
+        }
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    public static long chunkKey(Location location) {
+        return chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    public static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    public static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    private Bucket bucket(UUID world, long chunk) {
+        LongObjectMap<Bucket> buckets = worlds.get(world);
+        return buckets == null ? null : buckets.get(chunk);
+    }
+
+    // Starts tracking a chunk, returns true if it wasn't tracked yet and its rows need loading
+    public synchronized boolean track(UUID world, long chunk) {
+        LongObjectMap<Bucket> buckets = worlds.computeIfAbsent(world, key -> new LongObjectMap<>());
+        if (buckets.containsKey(chunk)) {
+            return false;
+        }
+        buckets.put(chunk, new Bucket());
+        chunks++;
+        return true;
+    }
+
+    // Fills a tracked chunk with the stands the database has in it
+    public synchronized void load(UUID world, long chunk, Collection<UUID> ids) {
+        Bucket bucket = bucket(world, chunk);
+        if (bucket == null) {
+            // Unloaded again before the rows came back
+            return;
+        }
+        for (UUID id : ids) {
+            if (bucket.add(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+                stands++;
+            }
+        }
+        bucket.loaded = true;
+    }
+
+    public synchronized void untrack(UUID world, long chunk) {
+        LongObjectMap<Bucket> buckets = worlds.get(world);
+        if (buckets == null) {
+            return;
+        }
+        Bucket bucket = buckets.remove(chunk);
+        if (bucket != null) {
+            chunks--;
+            stands -= bucket.size;
+        }
+        if (buckets.isEmpty()) {
+            worlds.remove(world);
+        }
+    }
+
+    public synchronized boolean isLoaded(UUID world, long chunk) {
+        Bucket bucket = bucket(world, chunk);
+        return bucket != null && bucket.loaded;
+    }
+
+    public synchronized boolean contains(UUID world, long chunk, UUID id) {
+        Bucket bucket = bucket(world, chunk);
+        return bucket != null && bucket.indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+    }
+
+    // Records a registered stand, ignored for chunks that aren't tracked
+    public synchronized void add(UUID world, long chunk, UUID id) {
+        Bucket bucket = bucket(world, chunk);
+        if (bucket != null && bucket.add(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+            stands++;
+        }
+    }
+
+    public synchronized boolean remove(UUID world, long chunk, UUID id) {
+        Bucket bucket = bucket(world, chunk);
+        if (bucket != null && bucket.remove(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+            stands--;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized int getChunks() {
+        return chunks;
+    }
+
+    public synchronized int getStands() {
+        return stands;
+    }
+}
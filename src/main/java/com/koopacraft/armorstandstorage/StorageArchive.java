@@ -0,0 +1,183 @@
+package com.koopacraft.armorstandstorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Portable dump of stored inventories, read and written one stand at a time so memory use doesn't
+// grow with the number of stands. Items are kept as ItemStack.serializeAsBytes, which records the
+// data version, so an archive can be imported on a newer server. Gzip compressed:
+//   bytes   magic "ASSA"
+//   byte    format version
+//   per stand:
+//     byte     1
+//     boolean  whether a UUID follows, rows from before stands were tracked by UUID have none
+//     long     UUID most significant bits, long least significant bits
+//     UTF      world name
+//     double   x, y, z
+//     int      number of occupied slots, then per slot: int slot, int length, serialized item
+//   byte    0, end of the archive
+// Doesn't touch the Bukkit API, so StorageTool can use it without a server.
+public class StorageArchive {
+    private static final byte[] MAGIC = {'A', 'S', 'S', 'A'};
+    public static final byte FORMAT_VERSION = 1;
+    // Far above any real item, only there so a corrupt length can't allocate gigabytes
+    private static final int MAX_ITEM_SIZE = 16 * 1024 * 1024;
+
+    // One stored stand
+    public static class Entry {
+        private final UUID id;
+        private final String world;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final Map<Integer, byte[]> slots;
+
+        public Entry(UUID id, String world, double x, double y, double z, Map<Integer, byte[]> slots) {
+            this.id = id;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.slots = slots;
+        }
+
+        // Null for rows from before stands were tracked by UUID
+        public UUID getId() {
+            return id;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getZ() {
+            return z;
+        }
+
+        // Serialized item per occupied slot
+        public Map<Integer, byte[]> getSlots() {
+            return slots;
+        }
+    }
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream output;
+        private int written;
+
+        public Writer(File file) throws IOException {
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 65536)));
+            output.write(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+        }
+
+        public void write(Entry entry) throws IOException {
+            output.writeByte(1);
+            output.writeBoolean(entry.id != null);
+            if (entry.id != null) {
+                output.writeLong(entry.id.getMostSignificantBits());
+                output.writeLong(entry.id.getLeastSignificantBits());
+            }
+            output.writeUTF(entry.world);
+            output.writeDouble(entry.x);
+            output.writeDouble(entry.y);
+            output.writeDouble(entry.z);
+            output.writeInt(entry.slots.size());
+            for (Map.Entry<Integer, byte[]> slot : entry.slots.entrySet()) {
+                output.writeInt(slot.getKey());
+                output.writeInt(slot.getValue().length);
+                output.write(slot.getValue());
+            }
+            written++;
+        }
+
+        public int getWritten() {
+            return written;
+        }
+
+        // Writes the end marker, an archive that wasn't closed is rejected as truncated
+        @Override
+        public void close() throws IOException {
+            output.writeByte(0);
+            output.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream input;
+
+        public Reader(File file) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536)));
+            byte[] magic = new byte[MAGIC.length];
+            try {
+                input.readFully(magic);
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (magic[i] != MAGIC[i]) {
+                        throw new IOException(file.getName() + " is not an armor stand storage archive");
+                    }
+                }
+                byte version = input.readByte();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported archive format version " + version);
+                }
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        // The next stand, null at the end of the archive
+        public Entry next() throws IOException {
+            try {
+                if (input.readByte() == 0) {
+                    return null;
+                }
+                UUID id = input.readBoolean() ? new UUID(input.readLong(), input.readLong()) : null;
+                String world = input.readUTF();
+                double x = input.readDouble();
+                double y = input.readDouble();
+                double z = input.readDouble();
+                int count = input.readInt();
+                Map<Integer, byte[]> slots = new TreeMap<>();
+                for (int i = 0; i < count; i++) {
+                    int slot = input.readInt();
+                    int length = input.readInt();
+                    if (length < 0 || length > MAX_ITEM_SIZE) {
+                        throw new IOException("Archive is corrupt, item of " + length + " bytes");
+                    }
+                    byte[] item = new byte[length];
+                    input.readFully(item);
+                    slots.put(slot, item);
+                }
+                return new Entry(id, world, x, y, z, slots);
+            } catch (EOFException e) {
+                throw new IOException("Archive is truncated", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Where inventories are persisted. Database calls write methods from a single writer thread,
+// in submission order, and read methods from a small pool of reader threads.
+public interface StorageBackend {
+    interface ChunkConsumer {
+        void accept(String world, int chunkX, int chunkZ);
+    }
+
+    // Connects and creates or upgrades the schema
+    void open() throws Exception;
+
+    // Adds rows for stands that are not stored yet, in one transaction
+    void registerArmorStands(Collection<StandRecord> stands) throws Exception;
+
+    boolean isRegistered(UUID id, Location location) throws Exception;
+
+    // Ids of the stands whose stored location is inside the given chunk, leaving out flagged orphans
+    Collection<UUID> getArmorStandsInChunk(String world, int chunkX, int chunkZ) throws Exception;
+
+    // Calls the consumer for every chunk holding at least one stand that isn't flagged as an orphan,
+    // possibly more than once per chunk
+    void readStoredChunks(ChunkConsumer consumer) throws Exception;
+
+    // Flags the rows of stands that are missing from the chunk they are stored in, unless they were moved
+    // out of it or flagged already. Registering or saving a stand clears its flag. Returns how many were flagged.
+    int markOrphans(String world, int chunkX, int chunkZ, Collection<UUID> ids) throws Exception;
+
+    // Deletes up to limit rows that were flagged before the given time, with their contents,
+    // and returns the ids of their stands
+    Collection<UUID> purgeOrphans(long flaggedBefore, int limit) throws Exception;
+
+    // Returns true if a row was deleted
+    boolean removeArmorStand(UUID id, Location location) throws Exception;
+
+    // Stores the changed slots of every stand in one transaction. Values are single encoded items from
+    // ItemCodec.encodeSlots, null empties the slot. Identical items may be stored once under ItemCodec.hash.
+    // When a record has no changed slots set the map holds every slot and replaces whatever was stored.
+    void saveInventories(Map<StandRecord, Map<Integer, byte[]>> inventories) throws Exception;
+
+    // Returns the whole encoded inventory, or null when nothing is stored for the stand
+    byte[] loadInventory(UUID id, Location location) throws Exception;
+
+    // Whole encoded inventories of several stands by UUID, read in one transaction so they are consistent
+    // with each other. Stands with nothing stored are left out.
+    Map<UUID, byte[]> loadInventories(Collection<UUID> ids) throws Exception;
+
+    // Number of stands that have contents stored
+    int countInventories() throws Exception;
+
+    // Deletes stored items that no slot refers to anymore, returns how many were deleted
+    default int collectItems() throws Exception {
+        return 0;
+    }
+
+    // Gives up to limit stored items that have no search keys yet their keys from ItemIndex,
+    // returns how many items were indexed
+    int indexItems(int limit) throws Exception;
+
+    // Stands holding items with the search key, leaving out flagged orphans, always in the same order
+    List<ItemMatch> findItems(String key, int offset, int limit) throws Exception;
+
+    // Streams every stored stand to the archive, returns how many were written
+    int exportInventories(StorageArchive.Writer out) throws Exception;
+
+    // Stores stands from an archive in one transaction, replacing whatever was stored for them
+    void importInventories(Collection<StorageArchive.Entry> entries) throws Exception;
+
+    // Writes a consistent copy of everything stored to the file while saves carry on. Returns false
+    // when the backend keeps nothing locally to copy, database servers are backed up with their own tools.
+    default boolean backup(File file) throws Exception {
+        return false;
+    }
+
+    // Drops rows that can't be read anymore and gives unused space back, returns a summary for the log
+    String compact() throws Exception;
+
+    // Converts stored data from older formats, returns how many rows were looked at
+    default int migrateLegacyInventories(int batchSize) throws Exception {
+        return 0;
+    }
+
+    // Numbers from the legacy conversion, null if nothing was converted
+    default String getLegacyMigrationSummary() {
+        return null;
+    }
+
+    void close();
+}
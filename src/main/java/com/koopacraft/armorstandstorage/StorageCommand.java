@@ -0,0 +1,344 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StorageCommand implements CommandExecutor, TabCompleter {
+    private static final List<String> SUBCOMMANDS = Arrays.asList("backup", "capacity", "compact", "export", "find", "import", "migrate", "stats");
+    private static final int FIND_PAGE_SIZE = 10;
+
+    private final ArmorStandStorage plugin;
+    // Export, import and compact run one at a time
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    public StorageCommand(ArmorStandStorage plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission("armorstandstorage.admin")) {
+            sender.sendMessage(plugin.getMessage("no-permission"));
+            return true;
+        }
+        if (args.length == 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /" + label + " <" + String.join("|", SUBCOMMANDS) + ">");
+            return true;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "migrate":
+                migrate(sender);
+                return true;
+            case "stats":
+                stats(sender, args);
+                return true;
+            case "export":
+                export(sender, args);
+                return true;
+            case "import":
+                importArchive(sender, label, args);
+                return true;
+            case "compact":
+                compact(sender);
+                return true;
+            case "backup":
+                backup(sender);
+                return true;
+            case "capacity":
+                capacity(sender, label, args);
+                return true;
+            case "find":
+                find(sender, label, args);
+                return true;
+            default:
+                sender.sendMessage(ChatColor.RED + "Unknown subcommand: " + args[0]);
+                return true;
+        }
+    }
+
+    private void migrate(CommandSender sender) {
+        InventoryStore store = plugin.getInventoryStore();
+        if (store instanceof EntityStore && ((EntityStore) store).isMigrating()) {
+            // Already running, report progress instead
+            EntityStore entityStore = (EntityStore) store;
+            plugin.getDatabase().countInventoriesAsync().thenAccept(remaining -> sender.sendMessage(
+                    ChatColor.YELLOW + "Moved " + entityStore.getMigrated() + " inventories onto armor stands this session, "
+                            + remaining + " still in the database"));
+            return;
+        }
+
+        plugin.startEntityMigration();
+        sender.sendMessage(ChatColor.GREEN + "Inventories are now stored on the armor stands themselves.");
+        sender.sendMessage(ChatColor.GREEN + "Stored inventories will be moved over as the chunks holding them load.");
+    }
+
+    private void stats(CommandSender sender, String[] args) {
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            plugin.getMetrics().reset();
+            sender.sendMessage(ChatColor.GREEN + "Stats have been reset.");
+            return;
+        }
+        List<String> lines = plugin.getMetrics().report(plugin);
+        sender.sendMessage(ChatColor.GOLD + lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            sender.sendMessage(ChatColor.GRAY + line);
+        }
+    }
+
+    // Lists the stands holding an item, straight from the search keys without decoding any inventory
+    private void find(CommandSender sender, String label, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /" + label + " find <material|enchant:<enchantment>|name:<name>> [page]");
+            return;
+        }
+        // A trailing number is the page, everything before it the search, so names can have spaces
+        int page = 1;
+        int end = args.length;
+        if (args.length > 2 && args[args.length - 1].matches("\\d+")) {
+            page = Math.max(1, Integer.parseInt(args[args.length - 1]));
+            end--;
+        }
+        String query = String.join(" ", Arrays.copyOfRange(args, 1, end));
+        String key = ItemIndex.parse(query);
+        if (key == null) {
+            sender.sendMessage(ChatColor.RED + "Unknown material: " + query);
+            return;
+        }
+
+        int shown = page;
+        // One more than fits, to know whether there is a next page
+        plugin.getDatabase().findItemsAsync(key, (page - 1) * FIND_PAGE_SIZE, FIND_PAGE_SIZE + 1).thenAccept(matches -> {
+            if (matches == null) {
+                sender.sendMessage(ChatColor.RED + "Search failed, see the console for details.");
+                return;
+            }
+            if (matches.isEmpty()) {
+                sender.sendMessage(ChatColor.YELLOW + (shown == 1 ? "No armor stand holds " : "No more armor stands hold ") + key);
+                return;
+            }
+            sender.sendMessage(ChatColor.GOLD + "Armor stands holding " + key + " (page " + shown + "):");
+            for (ItemMatch match : matches.subList(0, Math.min(FIND_PAGE_SIZE, matches.size()))) {
+                sender.sendMessage(ChatColor.GRAY + String.format("%s %.0f, %.0f, %.0f - %d slot%s", match.getWorld(),
+                        match.getX(), match.getY(), match.getZ(), match.getSlots(), match.getSlots() == 1 ? "" : "s"));
+            }
+            if (matches.size() > FIND_PAGE_SIZE) {
+                sender.sendMessage(ChatColor.YELLOW + "More: /" + label + " find " + query + " " + (shown + 1));
+            }
+        });
+    }
+
+    // Gives the armor stand the player looks at its own capacity, over what permissions would give
+    private void capacity(CommandSender sender, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "Only players can do this, look at the armor stand first.");
+            return;
+        }
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /" + label + " capacity <slots|reset>");
+            return;
+        }
+        Entity target = ((Player) sender).getTargetEntity(5);
+        if (!(target instanceof ArmorStand)) {
+            sender.sendMessage(ChatColor.RED + "Look at an armor stand first.");
+            return;
+        }
+        if (args[1].equalsIgnoreCase("reset")) {
+            target.getPersistentDataContainer().remove(plugin.getCapacityKey());
+            sender.sendMessage(ChatColor.GREEN + "This armor stand's capacity now depends on who opens it.");
+            return;
+        }
+        int slots;
+        try {
+            slots = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            sender.sendMessage(ChatColor.RED + "Not a number: " + args[1]);
+            return;
+        }
+        if (slots < 1 || slots > ArmorStandStorage.MAX_CAPACITY) {
+            sender.sendMessage(ChatColor.RED + "Capacity must be between 1 and " + ArmorStandStorage.MAX_CAPACITY + " slots.");
+            return;
+        }
+        // Items beyond a lowered capacity stay stored, they show up again if it's raised
+        target.getPersistentDataContainer().set(plugin.getCapacityKey(), PersistentDataType.INTEGER, slots);
+        sender.sendMessage(ChatColor.GREEN + "This armor stand now holds " + ((slots + 8) / 9 * 9)
+                + " slots, from the next time it's opened.");
+    }
+
+    // Archives are read from and written to this folder only
+    private File getExportFolder() {
+        return new File(plugin.getDataFolder(), "exports");
+    }
+
+    // The archive with the given name in the export folder, null if the name points anywhere else
+    private File resolveArchive(String name) {
+        if (name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            return null;
+        }
+        return new File(getExportFolder(), name.endsWith(".asa") ? name : name + ".asa");
+    }
+
+    private boolean start(CommandSender sender) {
+        if (!busy.compareAndSet(false, true)) {
+            sender.sendMessage(ChatColor.RED + "An export, import or compaction is already running.");
+            return false;
+        }
+        return true;
+    }
+
+    private void export(CommandSender sender, String[] args) {
+        String name = args.length > 1 ? args[1] : "export-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = resolveArchive(name);
+        if (file == null) {
+            sender.sendMessage(ChatColor.RED + "Invalid file name: " + name);
+            return;
+        }
+        if (!start(sender)) {
+            return;
+        }
+        getExportFolder().mkdirs();
+        sender.sendMessage(ChatColor.YELLOW + "Exporting stored inventories to " + file.getName() + "...");
+
+        // Queued saves go out first so the archive has them
+        CompletableFuture<Void> flushed = CompletableFuture.completedFuture(null);
+        if (plugin.getInventoryStore() instanceof DatabaseStore) {
+            flushed = CompletableFuture.runAsync(((DatabaseStore) plugin.getInventoryStore()).getSaveQueue()::flush);
+        }
+        flushed.thenCompose(ignored -> plugin.getDatabase().exportAsync(file)).whenComplete((count, error) -> {
+            busy.set(false);
+            if (count == null) {
+                sender.sendMessage(ChatColor.RED + "Export failed, see the console for details.");
+                return;
+            }
+            sender.sendMessage(ChatColor.GREEN + "Exported " + count + " armor stands to " + file.getName()
+                    + " (" + String.format("%.1f", file.length() / 1048576.0) + " MB).");
+        });
+    }
+
+    private void importArchive(CommandSender sender, String label, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /" + label + " import <file in plugins/ArmorStandStorage/exports>");
+            return;
+        }
+        File file = resolveArchive(args[1]);
+        if (file == null || !file.isFile()) {
+            sender.sendMessage(ChatColor.RED + "No such archive: " + args[1]);
+            return;
+        }
+        if (!start(sender)) {
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Importing " + file.getName() + ", stored inventories of the same armor stands are replaced and their open storages closed...");
+        plugin.getDatabase().importAsync(file).whenComplete((count, error) -> {
+            busy.set(false);
+            if (count == null) {
+                sender.sendMessage(ChatColor.RED + "Import failed, see the console for details.");
+                return;
+            }
+            sender.sendMessage(ChatColor.GREEN + "Imported " + count + " armor stands from " + file.getName() + ".");
+        });
+    }
+
+    private void compact(CommandSender sender) {
+        if (!start(sender)) {
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Compacting the database, saves wait until it's done...");
+        plugin.getDatabase().compactAsync().whenComplete((summary, error) -> {
+            busy.set(false);
+            if (summary == null) {
+                sender.sendMessage(ChatColor.RED + "Compaction failed, see the console for details.");
+                return;
+            }
+            plugin.getLogger().info("Compacted the database: " + summary);
+            sender.sendMessage(ChatColor.GREEN + "Compacted the database: " + summary);
+        });
+    }
+
+    private void backup(CommandSender sender) {
+        Backups backups = plugin.getBackups();
+        if (backups.isRunning()) {
+            sender.sendMessage(ChatColor.RED + "A backup is already running.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Backing up the database, saves carry on meanwhile...");
+        backups.backup().thenAccept(file -> {
+            if (file == null) {
+                sender.sendMessage(ChatColor.RED + "No backup was taken. Only SQLite databases can be backed up this way, "
+                        + "otherwise see the console for details.");
+                return;
+            }
+            sender.sendMessage(ChatColor.GREEN + "Backed up the database to backups/" + file.getName()
+                    + " (" + String.format("%.1f", file.length() / 1048576.0) + " MB).");
+        });
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!sender.hasPermission("armorstandstorage.admin")) {
+            return Collections.emptyList();
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+            return "reset".startsWith(args[1].toLowerCase()) ? Collections.singletonList("reset") : Collections.emptyList();
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("capacity")) {
+            return "reset".startsWith(args[1].toLowerCase()) ? Collections.singletonList("reset") : Collections.emptyList();
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("find")) {
+            List<String> keys = new ArrayList<>();
+            String prefix = args[1].toLowerCase();
+            for (String key : Arrays.asList("enchant:", "name:")) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+            for (Material material : Material.values()) {
+                String name = material.getKey().getKey();
+                if (!material.isLegacy() && material.isItem() && name.startsWith(prefix)) {
+                    keys.add(name);
+                }
+            }
+            return keys;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            List<String> archives = new ArrayList<>();
+            String[] names = getExportFolder().list((dir, name) -> name.endsWith(".asa"));
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(args[1])) {
+                        archives.add(name);
+                    }
+                }
+            }
+            return archives;
+        }
+        if (args.length != 1) {
+            return Collections.emptyList();
+        }
+        List<String> matches = new ArrayList<>();
+        for (String subcommand : SUBCOMMANDS) {
+            if (subcommand.startsWith(args[0].toLowerCase())) {
+                matches.add(subcommand);
+            }
+        }
+        return matches;
+    }
+}
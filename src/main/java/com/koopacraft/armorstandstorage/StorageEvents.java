@@ -0,0 +1,64 @@
+package com.koopacraft.armorstandstorage;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Flight recorder events, shown under "ArmorStandStorage" in JDK Mission Control.
+// Recording them costs next to nothing unless a recording has them enabled.
+public final class StorageEvents {
+    private StorageEvents() {
+    }
+
+    @Name("armorstandstorage.DatabaseOperation")
+    @Label("Database Operation")
+    @Category("ArmorStandStorage")
+    @Description("A storage operation run on a database thread")
+    @StackTrace(false)
+    public static class DatabaseOperation extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Queued")
+        @Description("Time spent waiting for a database thread")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queued;
+
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    @Name("armorstandstorage.Serialization")
+    @Label("Inventory Serialization")
+    @Category("ArmorStandStorage")
+    @StackTrace(false)
+    public static class Serialization extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Inventories")
+        public int inventories;
+
+        @Label("Slots")
+        public int slots;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("armorstandstorage.ListenerHandler")
+    @Label("Listener Handler")
+    @Category("ArmorStandStorage")
+    @Description("Main thread time spent in an event handler or the task it scheduled")
+    @StackTrace(false)
+    public static class ListenerHandler extends Event {
+        @Label("Handler")
+        public String handler;
+    }
+}
@@ -0,0 +1,150 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Marks a storage inventory and the stand it belongs to, so inventory events can tell ours
+// apart with an instanceof check instead of comparing titles. There is one per stand while
+// anyone has it open, shared by all its viewers, who may be on different region threads on Folia.
+// A storage bigger than a double chest is split into pages, each its own inventory with a row of
+// buttons at the bottom. Pages are only created when somebody turns to them.
+public class StorageHolder implements InventoryHolder {
+    // Storage slots per page when there is more than one, the sixth row holds the buttons
+    public static final int PAGE_SLOTS = 45;
+    // Storages up to this many slots are a single inventory without buttons
+    public static final int SINGLE_PAGE_SLOTS = 54;
+
+    private final ArmorStand armorStand;
+    private final int capacity;
+    private final int pageSlots;
+    private final Inventory[] pages;
+    private int viewers;
+    // Set when the last viewer left, a released holder can't be opened again
+    private boolean released;
+    // What each page held when it was last handed to storage, to find the slots that changed
+    private final ItemStack[][] saved;
+    private volatile boolean removed;
+
+    // Capacity is in slots and a whole number of rows
+    public StorageHolder(ArmorStand armorStand, int capacity) {
+        this.armorStand = armorStand;
+        this.capacity = capacity;
+        this.pageSlots = capacity <= SINGLE_PAGE_SLOTS ? capacity : PAGE_SLOTS;
+        this.pages = new Inventory[(capacity + pageSlots - 1) / pageSlots];
+        this.saved = new ItemStack[pages.length][];
+    }
+
+    public ArmorStand getArmorStand() {
+        return armorStand;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    public boolean isPaged() {
+        return pages.length > 1;
+    }
+
+    // Storage slot shown in the first slot of the page
+    public int getFirstSlot(int page) {
+        return page * pageSlots;
+    }
+
+    // Storage slots on the page, the button row of a paged storage comes after them
+    public int getSlots(int page) {
+        return Math.min(pageSlots, capacity - getFirstSlot(page));
+    }
+
+    // The first page, which every viewer starts on
+    @Override
+    public Inventory getInventory() {
+        return pages[0];
+    }
+
+    // Null until somebody turned to the page
+    public synchronized Inventory getPage(int page) {
+        return pages[page];
+    }
+
+    // Sets the page unless another viewer got there first, returns the one in use
+    synchronized Inventory setPage(int page, Inventory inventory, ItemStack[] contents) {
+        if (pages[page] == null) {
+            pages[page] = inventory;
+            saved[page] = contents;
+        }
+        return pages[page];
+    }
+
+    // Page the inventory shows, -1 if it isn't one of ours
+    public synchronized int pageOf(Inventory inventory) {
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] == inventory) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Contents of the page's storage slots, without the buttons
+    public ItemStack[] getPageContents(int page) {
+        return Arrays.copyOf(getPage(page).getContents(), getSlots(page));
+    }
+
+    // Everybody looking at any of the pages
+    public synchronized List<HumanEntity> getViewers() {
+        List<HumanEntity> viewers = new ArrayList<>();
+        for (Inventory page : pages) {
+            if (page != null) {
+                viewers.addAll(page.getViewers());
+            }
+        }
+        return viewers;
+    }
+
+    // Returns false if the holder was already released
+    public synchronized boolean addViewer() {
+        if (released) {
+            return false;
+        }
+        viewers++;
+        return true;
+    }
+
+    // Returns how many viewers are left, the holder is released when that reaches 0
+    public synchronized int removeViewer() {
+        if (--viewers == 0) {
+            released = true;
+        }
+        return viewers;
+    }
+
+    public synchronized boolean isReleased() {
+        return released;
+    }
+
+    // Callers synchronize on the holder while comparing against and updating the saved contents
+    public ItemStack[] getSaved(int page) {
+        return saved[page];
+    }
+
+    // The stand is gone, closing must not store anything for it
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public void setRemoved() {
+        removed = true;
+    }
+}
@@ -0,0 +1,42 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.World;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+// The supported way for other plugins to read and change stored inventories, registered with the
+// ServicesManager while ArmorStandStorage is enabled:
+//   StorageService storage = Bukkit.getServicesManager().load(StorageService.class);
+// Nothing here blocks. Futures complete on a database thread, so hop back to the thread owning a
+// stand before touching it. They complete exceptionally when the database can't be read or written,
+// and with an IllegalStateException while inventories are kept on the stands (storage.mode: entity).
+// Contents are indexed by storage slot and may be longer than 27 for stands with a bigger capacity.
+// A storage somebody has open is not updated in front of them; when they close it the slots they
+// changed are written over whatever was saved here meanwhile.
+public interface StorageService {
+    // Newest contents of the stand, empty slots when nothing is stored for it
+    CompletableFuture<ItemStack[]> load(UUID id);
+
+    // Newest contents of every stand, read in one transaction so they are consistent with each other
+    CompletableFuture<Map<UUID, ItemStack[]>> loadAll(Collection<UUID> ids);
+
+    // Stores the stand's contents now, together with changes still queued for it. Records without
+    // changed slots replace everything stored for the stand, otherwise only the changed slots are written.
+    // The location is only used for stands that have no row yet and to keep the stored location current.
+    CompletableFuture<Void> save(StandRecord stand);
+
+    // Like save, all in one transaction: either every stand is stored or none is. When it fails the
+    // changes stay queued and the background flush tries each stand again on its own, a few times at most,
+    // so they may still be stored after the future completed exceptionally.
+    CompletableFuture<Void> saveAll(Collection<StandRecord> stands);
+
+    // Calls the consumer, on a database thread, with every stored stand in the chunk and its contents,
+    // whether or not the chunk is loaded. Stands whose rows were flagged as gone are left out.
+    // Completes with how many stands there were.
+    CompletableFuture<Integer> streamStandsInChunk(World world, int chunkX, int chunkZ, BiConsumer<UUID, ItemStack[]> consumer);
+}
@@ -0,0 +1,114 @@
+package com.koopacraft.armorstandstorage;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Export, import and compaction of a SQLite database while the server is stopped:
+//   java -jar ArmorStandStorage.jar <export|import|compact> <database file> [archive file]
+// Only uses plain JDBC and the bundled driver, the Bukkit API isn't on the classpath here.
+public class StorageTool {
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    public static void main(String[] args) {
+        if (args.length < 2 || (!args[0].equals("compact") && args.length < 3)) {
+            usage();
+            return;
+        }
+        File databaseFile = new File(args[1]);
+        if (!databaseFile.isFile()) {
+            System.err.println("No such database file: " + databaseFile);
+            System.exit(1);
+        }
+
+        DatabaseConnection connection = null;
+        try {
+            connection = open(databaseFile);
+            SQLiteMaintenance maintenance = new SQLiteMaintenance(new ItemCodec(0));
+            switch (args[0]) {
+                case "export":
+                    export(connection, maintenance, new File(args[2]));
+                    break;
+                case "import":
+                    importArchive(connection, maintenance, new File(args[2]));
+                    break;
+                case "compact":
+                    System.out.println("Compacted the database: " + maintenance.compact(connection));
+                    break;
+                default:
+                    usage();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar ArmorStandStorage.jar <export|import|compact> <database file> [archive file]");
+        System.err.println("Stop the server first, the database must not be in use.");
+        System.exit(1);
+    }
+
+    private static DatabaseConnection open(File file) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        DatabaseConnection connection = new DatabaseConnection(
+                DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath()));
+        connection.execute("PRAGMA busy_timeout = 5000");
+        // The plugin migrates the schema on startup, the tool only works on the current one
+        int version;
+        try (Statement stmt = connection.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (version != SQLiteBackend.SCHEMA_VERSION) {
+            connection.close();
+            throw new IllegalStateException("Database is at schema version " + version + ", expected "
+                    + SQLiteBackend.SCHEMA_VERSION + ". Start the server with this plugin version once to update it.");
+        }
+        return connection;
+    }
+
+    private static void export(DatabaseConnection connection, SQLiteMaintenance maintenance, File file) throws Exception {
+        int count;
+        try (StorageArchive.Writer out = new StorageArchive.Writer(file)) {
+            count = maintenance.export(connection, out);
+        } catch (Exception e) {
+            file.delete();
+            throw e;
+        }
+        System.out.println("Exported " + count + " armor stands to " + file);
+        if (maintenance.getSkippedLegacy() > 0) {
+            System.out.println("Skipped " + maintenance.getSkippedLegacy()
+                    + " rows in the old Base64 format, start the server once to convert them first");
+        }
+    }
+
+    private static void importArchive(DatabaseConnection connection, SQLiteMaintenance maintenance, File file) throws Exception {
+        int imported = 0;
+        try (StorageArchive.Reader in = new StorageArchive.Reader(file)) {
+            List<StorageArchive.Entry> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            StorageArchive.Entry entry;
+            while ((entry = in.next()) != null) {
+                batch.add(entry);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    maintenance.importEntries(connection, batch);
+                    imported += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                maintenance.importEntries(connection, batch);
+                imported += batch.size();
+            }
+        }
+        System.out.println("Imported " + imported + " armor stands from " + file);
+    }
+}
@@ -0,0 +1,121 @@
+package com.koopacraft.armorstandstorage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class InventoryCacheTest {
+    // Matches InventoryCache.ENTRY_OVERHEAD
+    private static final long OVERHEAD = 128;
+
+    @Test
+    void staysWithinItsByteBudget() {
+        InventoryCache cache = new InventoryCache(3 * (OVERHEAD + 100));
+        UUID[] ids = new UUID[4];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            cache.put(ids[i], new byte[100]);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(3 * (OVERHEAD + 100), cache.getUsedBytes());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.peek(ids[0]));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        InventoryCache cache = new InventoryCache(2 * (OVERHEAD + 100));
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        cache.put(a, new byte[100]);
+        cache.put(b, new byte[100]);
+        cache.get(a);
+        cache.put(UUID.randomUUID(), new byte[100]);
+
+        assertNotNull(cache.peek(a));
+        assertNull(cache.peek(b));
+    }
+
+    @Test
+    void replacingAndInvalidatingKeepTheByteCount() {
+        InventoryCache cache = new InventoryCache(10_000);
+        UUID id = UUID.randomUUID();
+        cache.put(id, new byte[100]);
+        cache.put(id, new byte[300]);
+        assertEquals(OVERHEAD + 300, cache.getUsedBytes());
+
+        cache.invalidate(id);
+        assertEquals(0, cache.getUsedBytes());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void entriesOverTheWholeBudgetAreNotKept() {
+        InventoryCache cache = new InventoryCache(OVERHEAD + 100);
+        UUID small = UUID.randomUUID();
+        cache.put(small, new byte[10]);
+        cache.put(UUID.randomUUID(), new byte[1_000]);
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.peek(small));
+    }
+
+    @Test
+    void nothingStoredIsCachedAsEmpty() {
+        InventoryCache cache = new InventoryCache(10_000);
+        UUID id = UUID.randomUUID();
+        cache.put(id, null);
+        assertArrayEquals(new byte[0], cache.get(id));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void loadsNeverReplaceWhatASaveCached() {
+        InventoryCache cache = new InventoryCache(10_000);
+        UUID id = UUID.randomUUID();
+        long since = cache.getInvalidations();
+        cache.put(id, new byte[]{2});
+        cache.putIfAbsent(id, new byte[]{1}, since);
+        assertArrayEquals(new byte[]{2}, cache.peek(id));
+    }
+
+    @Test
+    void invalidationOnlyDropsLoadsOfTheSameStand() {
+        InventoryCache cache = new InventoryCache(10_000);
+        UUID loading = UUID.randomUUID();
+        UUID saved = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        long since = cache.getInvalidations();
+
+        cache.invalidate(saved);
+        cache.putIfAbsent(saved, new byte[]{1}, since);
+        cache.putIfAbsent(loading, new byte[]{1}, since);
+        assertNull(cache.peek(saved));
+        assertNotNull(cache.peek(loading));
+
+        // A load that started after the invalidation can fill the cache
+        cache.putIfAbsent(saved, new byte[]{1}, cache.getInvalidations());
+        assertNotNull(cache.peek(saved));
+
+        cache.invalidate(other);
+        assertNotNull(cache.peek(loading));
+    }
+
+    @Test
+    void loadsOlderThanTheRememberedInvalidationsAreDropped() {
+        InventoryCache cache = new InventoryCache(10_000);
+        UUID loading = UUID.randomUUID();
+        long since = cache.getInvalidations();
+        // More than the cache remembers, it can't tell anymore whether the load is still current
+        for (int i = 0; i < 5_000; i++) {
+            cache.invalidate(UUID.randomUUID());
+        }
+        cache.putIfAbsent(loading, new byte[]{1}, since);
+        assertNull(cache.peek(loading));
+    }
+}
@@ -0,0 +1,137 @@
+package com.koopacraft.armorstandstorage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Works on already serialized items, so none of this needs a server
+class ItemCodecTest {
+    private static Map<Integer, byte[]> items() {
+        Map<Integer, byte[]> items = new TreeMap<>();
+        items.put(0, new byte[]{1, 2, 3});
+        items.put(5, new byte[200]);
+        items.put(30, new byte[]{42});
+        return items;
+    }
+
+    private static void assertSameSlots(Map<Integer, byte[]> expected, Map<Integer, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), "slot " + entry.getKey());
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        ItemCodec codec = new ItemCodec(0);
+        byte[] data = codec.assemble(items());
+
+        assertEquals(ItemCodec.FORMAT_VERSION, data[0]);
+        assertEquals(0, data[1]);
+        assertSameSlots(items(), codec.split(data));
+        // Decoding no slots deserializes nothing, but still sizes the inventory
+        assertEquals(31, codec.decode(data, 0, 0).length);
+    }
+
+    @Test
+    void smallInventoriesAreAChestInSize() throws IOException {
+        ItemCodec codec = new ItemCodec(0);
+        Map<Integer, byte[]> items = new TreeMap<>();
+        items.put(2, new byte[]{7});
+        assertEquals(27, codec.decode(codec.assemble(items), 0, 0).length);
+    }
+
+    @Test
+    void compressedRoundTrip() throws IOException {
+        ItemCodec codec = new ItemCodec(64);
+        byte[] data = codec.assemble(items());
+
+        assertEquals(1, data[1]);
+        assertSameSlots(items(), codec.split(data));
+    }
+
+    @Test
+    void patchReplacesAndClearsSlots() throws IOException {
+        ItemCodec codec = new ItemCodec(0);
+        Map<Integer, byte[]> changes = new TreeMap<>();
+        changes.put(5, null);
+        changes.put(40, new byte[]{9, 9});
+
+        Map<Integer, byte[]> expected = items();
+        expected.remove(5);
+        expected.put(40, new byte[]{9, 9});
+        byte[] patched = codec.patch(codec.assemble(items()), changes);
+        assertSameSlots(expected, codec.split(patched));
+        assertEquals(41, codec.decode(patched, 0, 0).length);
+    }
+
+    @Test
+    void truncatedInputThrows() {
+        ItemCodec codec = new ItemCodec(0);
+        byte[] data = codec.assemble(items());
+        for (int length = 0; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> codec.split(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void truncatedCompressedInputThrows() {
+        ItemCodec codec = new ItemCodec(64);
+        byte[] data = codec.assemble(items());
+        byte[] truncated = Arrays.copyOf(data, data.length / 2);
+        assertThrows(IOException.class, () -> codec.split(truncated));
+    }
+
+    @Test
+    void corruptCompressedInputThrows() {
+        byte[] data = {ItemCodec.FORMAT_VERSION, 1, 0x55, 0x66, 0x77, 0x12, 0x34};
+        assertThrows(IOException.class, () -> new ItemCodec(64).split(data));
+    }
+
+    @Test
+    void oversizedSlotCountThrows() {
+        // Varint of 1,000,000 slots followed by nothing
+        byte[] data = {ItemCodec.FORMAT_VERSION, 0, (byte) 0xC0, (byte) 0x84, 0x3D};
+        assertThrows(IOException.class, () -> new ItemCodec(0).split(data));
+        assertThrows(IOException.class, () -> new ItemCodec(0).decode(data, 0, 0));
+    }
+
+    @Test
+    void negativeSlotCountThrows() {
+        byte[] data = {ItemCodec.FORMAT_VERSION, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertThrows(IOException.class, () -> new ItemCodec(0).split(data));
+    }
+
+    @Test
+    void itemLongerThanDataThrows() {
+        // One slot holding an item that claims to be 1000 bytes long
+        byte[] data = {ItemCodec.FORMAT_VERSION, 0, 1, 1, (byte) 0xE8, 0x07, 1, 2, 3};
+        assertThrows(IOException.class, () -> new ItemCodec(0).split(data));
+    }
+
+    @Test
+    void unknownVersionThrows() {
+        byte[] data = new ItemCodec(0).assemble(items());
+        data[0] = ItemCodec.FORMAT_VERSION + 1;
+        IOException e = assertThrows(IOException.class, () -> new ItemCodec(0).split(data));
+        assertTrue(e.getMessage().contains("version"));
+    }
+
+    @Test
+    void hashIsStableAndShort() {
+        byte[] hash = ItemCodec.hash(new byte[]{1, 2, 3});
+        assertEquals(ItemCodec.HASH_LENGTH, hash.length);
+        assertArrayEquals(hash, ItemCodec.hash(new byte[]{1, 2, 3}));
+        assertNotEquals(Arrays.toString(hash), Arrays.toString(ItemCodec.hash(new byte[]{1, 2, 4})));
+    }
+}
@@ -0,0 +1,90 @@
+package com.koopacraft.armorstandstorage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongObjectMapTest {
+    @Test
+    void putGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(1L, "a"));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals("b", map.get(1L));
+        assertTrue(map.containsKey(1L));
+        assertEquals(1, map.size());
+
+        assertEquals("b", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertFalse(map.containsKey(1L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void nullValuesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new LongObjectMap<String>().put(1L, null));
+    }
+
+    @Test
+    void growsPastItsExpectedSize() {
+        LongObjectMap<Long> map = new LongObjectMap<>(4);
+        for (long key = 0; key < 10_000; key++) {
+            map.put(StandRegistry.chunkKey((int) key, (int) -key), key);
+        }
+        assertEquals(10_000, map.size());
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals(key, map.get(StandRegistry.chunkKey((int) key, (int) -key)));
+        }
+    }
+
+    @Test
+    void removeKeepsCollidingKeysReachable() {
+        // A small table forces long probe runs, removals in the middle of them have to shift the rest back
+        LongObjectMap<Integer> map = new LongObjectMap<>(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextInt(512);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 512; key++) {
+            assertEquals(expected.get(key), map.get(key), "key " + key);
+        }
+
+        Map<Long, Integer> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void computeIfAbsentOnlyCreatesOnce() {
+        LongObjectMap<StringBuilder> map = new LongObjectMap<>();
+        StringBuilder first = map.computeIfAbsent(7L, key -> new StringBuilder());
+        assertTrue(first == map.computeIfAbsent(7L, key -> new StringBuilder()));
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(1L, "a");
+        map.put(2L, "b");
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+        map.put(1L, "c");
+        assertEquals("c", map.get(1L));
+    }
+}
@@ -0,0 +1,199 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs the MySQL flavour of the SQL against H2 in MySQL compatibility mode, the way storage.type: h2 does
+class PooledJdbcBackendTest {
+    private static final World WORLD = (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+            new Class<?>[]{World.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return "world";
+                    case "hashCode":
+                        return 0;
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    @TempDir
+    File folder;
+    private final ItemCodec codec = new ItemCodec(0);
+    private PooledJdbcBackend backend;
+
+    @BeforeEach
+    void open() throws Exception {
+        backend = newBackend();
+        backend.open();
+    }
+
+    @AfterEach
+    void close() {
+        backend.close();
+    }
+
+    private PooledJdbcBackend newBackend() {
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("type", "h2");
+        config.set("name", "storage");
+        return new PooledJdbcBackend(folder, Logger.getLogger("PooledJdbcBackendTest"), config, codec, 2);
+    }
+
+    // A second connection to the same embedded database, for looking at the tables directly
+    private Connection connect() throws Exception {
+        return DriverManager.getConnection("jdbc:h2:" + new File(folder, "storage").getAbsolutePath()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE", "root", "");
+    }
+
+    private static StandRecord stand(UUID id, BitSet changedSlots) {
+        return new StandRecord(id, new Location(WORLD, 10.5, 64, -3.5), null, changedSlots);
+    }
+
+    private void save(StandRecord stand, Map<Integer, byte[]> slots) throws Exception {
+        Map<StandRecord, Map<Integer, byte[]>> inventories = new LinkedHashMap<>();
+        inventories.put(stand, slots);
+        backend.saveInventories(inventories);
+    }
+
+    private static Map<Integer, byte[]> slots(Object... slotsAndItems) {
+        Map<Integer, byte[]> slots = new TreeMap<>();
+        for (int i = 0; i < slotsAndItems.length; i += 2) {
+            slots.put((Integer) slotsAndItems[i], (byte[]) slotsAndItems[i + 1]);
+        }
+        return slots;
+    }
+
+    private static void assertSameSlots(Map<Integer, byte[]> expected, Map<Integer, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), "slot " + entry.getKey());
+        }
+    }
+
+    private static int count(Connection connection, String table) throws Exception {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    void schemaIsCreatedAndReopened() throws Exception {
+        UUID id = UUID.randomUUID();
+        save(stand(id, null), slots(0, new byte[]{1}));
+        backend.close();
+
+        // Opening again finds the tables and leaves what is stored alone
+        backend = newBackend();
+        backend.open();
+        assertEquals(1, backend.countInventories());
+        assertSameSlots(slots(0, new byte[]{1}), codec.split(backend.loadInventory(id, null)));
+    }
+
+    @Test
+    void savesAndLoadsSlots() throws Exception {
+        UUID id = UUID.randomUUID();
+        byte[] a = {1, 2, 3};
+        byte[] b = {4, 5};
+        byte[] c = {6};
+        save(stand(id, null), slots(0, a, 3, b));
+        assertSameSlots(slots(0, a, 3, b), codec.split(backend.loadInventory(id, null)));
+
+        // Only the changed slots are written, null empties a slot
+        BitSet changed = new BitSet();
+        changed.set(3);
+        changed.set(40);
+        save(stand(id, changed), slots(3, null, 40, c));
+        byte[] loaded = backend.loadInventory(id, null);
+        assertSameSlots(slots(0, a, 40, c), codec.split(loaded));
+        assertEquals(41, codec.decode(loaded, 0, 0).length);
+
+        // Saving everything replaces what was there
+        save(stand(id, null), slots(1, b));
+        assertSameSlots(slots(1, b), codec.split(backend.loadInventory(id, null)));
+    }
+
+    @Test
+    void loadsSeveralStandsTogether() throws Exception {
+        UUID stored = UUID.randomUUID();
+        UUID unknown = UUID.randomUUID();
+        save(stand(stored, null), slots(2, new byte[]{9}));
+
+        Map<UUID, byte[]> loaded = backend.loadInventories(Arrays.asList(stored, unknown));
+        assertEquals(Collections.singleton(stored), loaded.keySet());
+        assertNull(backend.loadInventory(unknown, null));
+    }
+
+    @Test
+    void storesIdenticalItemsOnce() throws Exception {
+        byte[] item = {7, 7, 7};
+        save(stand(UUID.randomUUID(), null), slots(0, item, 1, item));
+        save(stand(UUID.randomUUID(), null), slots(5, item));
+
+        try (Connection connection = connect()) {
+            assertEquals(1, count(connection, "armor_stand_items"));
+            assertEquals(3, count(connection, "armor_stand_slots"));
+        }
+    }
+
+    @Test
+    void findsStandsByItemKey() throws Exception {
+        UUID holding = UUID.randomUUID();
+        byte[] stone = {1};
+        byte[] dirt = {2};
+        save(stand(holding, null), slots(0, stone, 4, stone));
+        save(stand(UUID.randomUUID(), null), slots(0, dirt));
+
+        // Keys normally come from ItemIndex, which needs a server to read the items
+        try (Connection connection = connect();
+             PreparedStatement pstmt = connection.prepareStatement(
+                     "INSERT INTO armor_stand_item_keys (item_key, hash) VALUES (?, ?)")) {
+            pstmt.setString(1, "stone");
+            pstmt.setBytes(2, ItemCodec.hash(stone));
+            pstmt.executeUpdate();
+        }
+
+        List<ItemMatch> matches = backend.findItems("stone", 0, 10);
+        assertEquals(1, matches.size());
+        ItemMatch match = matches.get(0);
+        assertEquals(holding, match.getId());
+        assertEquals("world", match.getWorld());
+        assertEquals(10.5, match.getX());
+        assertEquals(-3.5, match.getZ());
+        assertEquals(2, match.getSlots());
+
+        assertTrue(backend.findItems("stone", 1, 10).isEmpty());
+        assertTrue(backend.findItems("dirt", 0, 10).isEmpty());
+    }
+}
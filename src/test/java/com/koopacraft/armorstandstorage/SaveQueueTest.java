@@ -0,0 +1,95 @@
+package com.koopacraft.armorstandstorage;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SaveQueueTest {
+    private static final UUID ID = UUID.randomUUID();
+
+    // Merging only moves items around, so an item that is never looked into is enough
+    private static ItemStack item() {
+        return new ItemStack() {
+        };
+    }
+
+    private static BitSet slots(int... slots) {
+        BitSet set = new BitSet();
+        for (int slot : slots) {
+            set.set(slot);
+        }
+        return set;
+    }
+
+    private static StandRecord record(ItemStack[] contents, BitSet changedSlots) {
+        return new StandRecord(ID, null, contents, changedSlots);
+    }
+
+    @Test
+    void wholeInventoryReplacesWhatWasQueued() {
+        StandRecord newer = record(new ItemStack[27], null);
+        assertSame(newer, SaveQueue.merge(record(new ItemStack[27], slots(1)), newer));
+    }
+
+    @Test
+    void newerSlotsWinAndBothSetsAreWritten() {
+        ItemStack a = item();
+        ItemStack b = item();
+        ItemStack c = item();
+        ItemStack[] older = new ItemStack[27];
+        older[1] = a;
+        older[2] = b;
+        ItemStack[] newer = new ItemStack[27];
+        newer[2] = c;
+        newer[3] = item();
+
+        StandRecord merged = SaveQueue.merge(record(older, slots(1, 2)), record(newer, slots(2)));
+        assertSame(a, merged.getContents()[1]);
+        assertSame(c, merged.getContents()[2]);
+        // Not among the newer changed slots, so not taken from it
+        assertNull(merged.getContents()[3]);
+        assertEquals(slots(1, 2), merged.getChangedSlots());
+        // The queued record is left alone
+        assertSame(b, older[2]);
+    }
+
+    @Test
+    void emptiedSlotsStayEmpty() {
+        ItemStack[] older = new ItemStack[27];
+        older[4] = item();
+        StandRecord merged = SaveQueue.merge(record(older, slots(4)), record(new ItemStack[27], slots(4)));
+        assertNull(merged.getContents()[4]);
+        assertEquals(slots(4), merged.getChangedSlots());
+    }
+
+    @Test
+    void slotsOnTopOfAWholeInventoryKeepItWhole() {
+        ItemStack a = item();
+        ItemStack b = item();
+        ItemStack[] older = new ItemStack[27];
+        older[0] = a;
+        ItemStack[] newer = new ItemStack[27];
+        newer[5] = b;
+
+        StandRecord merged = SaveQueue.merge(record(older, null), record(newer, slots(5)));
+        assertNull(merged.getChangedSlots());
+        assertSame(a, merged.getContents()[0]);
+        assertSame(b, merged.getContents()[5]);
+    }
+
+    @Test
+    void laterPagesGrowTheContents() {
+        ItemStack[] newer = new ItemStack[60];
+        newer[50] = item();
+        StandRecord merged = SaveQueue.merge(record(new ItemStack[27], slots(0)), record(newer, slots(50)));
+        assertEquals(60, merged.getContents().length);
+        assertSame(newer[50], merged.getContents()[50]);
+        assertEquals(slots(0, 50), merged.getChangedSlots());
+    }
+}